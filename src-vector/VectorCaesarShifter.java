@@ -0,0 +1,53 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Caesar shift loops that use the JDK Vector API to shift a whole vector of characters or bytes at once.
+ * Characters are handled as shorts, which wrap around the same way.
+ * Whatever is left over after the last full vector is shifted one at a time.
+ *
+ * Needs the jdk.incubator.vector module, so it is kept out of src and compiled on its own, after src:
+ * javac --add-modules jdk.incubator.vector -cp out -d out src-vector/*.java
+ * CaesarCipher only loads this class when it was compiled and the module is present, so nothing else refers to it.
+ *
+ * Author: Fatima Navid
+ */
+class VectorCaesarShifter implements CaesarShifter {
+    private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public void shift(char[] characters, int length, int key) {
+        short shortKey = (short) key;
+        int vectorEnd = CHARS.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += CHARS.length()) {
+            ShortVector.fromCharArray(CHARS, characters, i).add(shortKey).intoCharArray(characters, i);
+        }
+        for(; i < length; i++) {
+            characters[i] = (char) (characters[i] + key);
+        }
+    }
+
+    @Override
+    public void shift(ByteBuffer input, ByteBuffer output, int key) {
+        byte byteKey = (byte) key;
+        int length = input.remaining();
+        int in = input.position();
+        int out = output.position();
+        int vectorEnd = BYTES.loopBound(length);
+        int i = 0;
+        for(; i < vectorEnd; i += BYTES.length()) {
+            ByteVector.fromByteBuffer(BYTES, input, in + i, ByteOrder.nativeOrder()).add(byteKey)
+                    .intoByteBuffer(output, out + i, ByteOrder.nativeOrder());
+        }
+        for(; i < length; i++) {
+            output.put(out + i, (byte) (input.get(in + i) + key));
+        }
+        input.position(in + length);
+        output.position(out + length);
+    }
+}
@@ -0,0 +1,148 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Base class for the authenticated ciphers from javax.crypto (AES-GCM and ChaCha20-Poly1305).
+ * Each thread keeps its own javax.crypto.Cipher per transformation, shared by every instance, so the provider
+ * lookup is only paid once per thread even when short-lived session ciphers are created.
+ *
+ * Encrypted output is the 12 byte nonce followed by the ciphertext and authentication tag.
+ * Every message gets a fresh 96 bit random nonce. A counter would restart for every new instance on the same key
+ * (new sessions, restarts, other nodes), so random nonces are used to keep nonces from repeating across instances.
+ * Text is encrypted as UTF-8, and the encrypted bytes are stored as text with one character per byte.
+ *
+ * Author: Fatima Navid
+ */
+public abstract class AeadCipher implements MessageCipher {
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+
+    /**
+     * Per-thread random source for nonces, so threads don't wait on each other.
+     */
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    /**
+     * Per-thread javax.crypto ciphers by transformation name.
+     */
+    private static final Map<String, ThreadLocal<Cipher>> CIPHERS = new ConcurrentHashMap<>();
+
+    private final SecretKey key;
+    private final ThreadLocal<Cipher> ciphers;
+
+    /**
+     * Constructor for a cipher with a key and the javax.crypto transformation to use.
+     *
+     * @param key, the secret key.
+     * @param transformation, the javax.crypto transformation name.
+     */
+    protected AeadCipher(SecretKey key, String transformation) {
+        this.key = key;
+        this.ciphers = CIPHERS.computeIfAbsent(transformation,
+                name -> ThreadLocal.withInitial(() -> newCipher(name)));
+    }
+
+    /**
+     * Creates the algorithm parameters for a nonce.
+     *
+     * @param nonce, the nonce bytes.
+     * @return the parameters to initialise the cipher with.
+     */
+    protected abstract AlgorithmParameterSpec parameters(byte[] nonce);
+
+    @Override
+    public String encrypt(String content) {
+        byte[] plain = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer output = ByteBuffer.allocate(encryptedLength(plain.length));
+        if(encrypt(ByteBuffer.wrap(plain), output) < 0) {
+            return null;
+        }
+        return new String(output.array(), 0, output.position(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String decrypt(String content) {
+        byte[] encrypted = content.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer output = ByteBuffer.allocate(Math.max(encrypted.length - NONCE_LENGTH - TAG_LENGTH, 0));
+        if(decrypt(ByteBuffer.wrap(encrypted), output) < 0) {
+            return null;
+        }
+        return new String(output.array(), 0, output.position(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int encrypt(ByteBuffer input, ByteBuffer output) {
+        if(output.remaining() < encryptedLength(input.remaining())) {
+            System.out.println("Output buffer is too small.");
+            return -1;
+        }
+
+        byte[] nonce = nextNonce();
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, parameters(nonce));
+            output.put(nonce);
+            return NONCE_LENGTH + cipher.doFinal(input, output);
+        } catch(GeneralSecurityException e) {
+            System.out.println("Encryption failed.");
+            return -1;
+        }
+    }
+
+    @Override
+    public int decrypt(ByteBuffer input, ByteBuffer output) {
+        if(input.remaining() < NONCE_LENGTH + TAG_LENGTH) {
+            System.out.println("Decryption failed.");
+            return -1;
+        }
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+        input.get(nonce);
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, parameters(nonce));
+            return cipher.doFinal(input, output);
+        } catch(GeneralSecurityException e) {
+            //Wrong key or the message has been changed.
+            System.out.println("Decryption failed.");
+            return -1;
+        }
+    }
+
+    @Override
+    public int encryptedLength(int inputLength) {
+        return NONCE_LENGTH + inputLength + TAG_LENGTH;
+    }
+
+    /**
+     * Creates a random nonce for the next message.
+     *
+     * @return 12 random bytes.
+     */
+    private static byte[] nextNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.get().nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * Creates a javax.crypto cipher for a transformation.
+     *
+     * @param transformation, the transformation name.
+     * @return the cipher (the JDK always provides AES-GCM and ChaCha20-Poly1305).
+     */
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException(transformation + " is not supported.", e);
+        }
+    }
+}
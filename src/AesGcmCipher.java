@@ -0,0 +1,34 @@
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-GCM cipher for messages.
+ *
+ * Author: Fatima Navid
+ */
+public class AesGcmCipher extends AeadCipher {
+    /**
+     * Constructor for an AES-GCM cipher with a raw key.
+     *
+     * @param key, 16, 24 or 32 key bytes.
+     */
+    public AesGcmCipher(byte[] key) {
+        this(new SecretKeySpec(key, "AES"));
+    }
+
+    /**
+     * Constructor for an AES-GCM cipher with a secret key.
+     *
+     * @param key, an AES secret key.
+     */
+    public AesGcmCipher(SecretKey key) {
+        super(key, "AES/GCM/NoPadding");
+    }
+
+    @Override
+    protected AlgorithmParameterSpec parameters(byte[] nonce) {
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Class to hold the information about an agent
  *
@@ -8,7 +10,12 @@ public class Agent{
      * Constant to represent the starting value for agent IDs.
      * First agent has this ID. Every subsequent agents' ID increments by 1.
      */
-    private static int FIRST_AGENT_ID = 549321;
+    public static final int FIRST_AGENT_ID = 549321;
+
+    /**
+     * Counter for the next agent ID, updated atomically so agents can be created from any thread.
+     */
+    private static final AtomicInteger NEXT_AGENT_ID = new AtomicInteger(FIRST_AGENT_ID);
 
     /**
      * Attributes to hold information about agents including name, code name, clearance level, ID and UID
@@ -25,7 +32,7 @@ public class Agent{
      * UID formatted as per specification.
      */
     public Agent() {
-        this.agentID = FIRST_AGENT_ID++;
+        this.agentID = NEXT_AGENT_ID.getAndIncrement();
         this.UID = codeName + "@" + agentID;
     }
 
@@ -40,7 +47,7 @@ public class Agent{
     public Agent(String agentName, String codeName) {
         this.agentName = agentName;
         this.codeName = codeName;
-        this.agentID = FIRST_AGENT_ID++;
+        this.agentID = NEXT_AGENT_ID.getAndIncrement();
         this.UID = codeName + "@" + agentID;
     }
 
@@ -57,7 +64,7 @@ public class Agent{
     public Agent(String agentName, String codeName, Clearance agentClearance) {
         this.agentName = agentName;
         this.codeName = codeName;
-        this.agentID = FIRST_AGENT_ID++;
+        this.agentID = NEXT_AGENT_ID.getAndIncrement();
         this.UID = codeName + "@" + agentID;
         this.agentClearance = agentClearance;
     }
@@ -0,0 +1,160 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Directory of agents that can be looked up by agent ID, UID or code name in constant time.
+ *
+ * Agent IDs are handed out one after another from Agent.FIRST_AGENT_ID, so agents are kept in an array
+ * indexed by their ID offset instead of a map of boxed keys. UIDs and code names are kept in hash maps.
+ * Lookups can run from any thread; registering and renaming agents are synchronized.
+ *
+ * Author: Fatima Navid
+ */
+public class AgentRegistry {
+    /**
+     * Agents indexed by agent ID minus Agent.FIRST_AGENT_ID.
+     * The field is written again after every change so readers see the update.
+     */
+    private volatile Agent[] byID = new Agent[1024];
+    private final ConcurrentMap<String, Agent> byUID = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Agent> byCodeName = new ConcurrentHashMap<>();
+    private int size;
+
+    /**
+     * Creates a secret agent and registers it.
+     *
+     * @param name, agent's name
+     * @param codeName agent's code name
+     * @param clearance agent's clearance level
+     * @return the new agent, or null if the code name is already registered.
+     */
+    public SecretAgent createSecretAgent(String name, String codeName, Clearance clearance) {
+        SecretAgent agent = new SecretAgent(name, codeName, clearance);
+        return register(agent) ? agent : null;
+    }
+
+    /**
+     * Adds an agent to the registry.
+     * If the code name or agent ID is already registered, an error message is printed.
+     *
+     * @param agent, the agent to add.
+     * @return true if the agent was added.
+     */
+    public synchronized boolean register(Agent agent) {
+        int index = agent.getAgentID() - Agent.FIRST_AGENT_ID;
+        Agent[] agents = byID;
+        if(index < agents.length && agents[index] != null) {
+            System.out.println("Agent already registered.");
+            return false;
+        }
+        if(agent.getCodeName() != null && byCodeName.putIfAbsent(agent.getCodeName(), agent) != null) {
+            System.out.println("Code name already registered.");
+            return false;
+        }
+
+        if(index >= agents.length) {
+            agents = Arrays.copyOf(agents, Math.max(agents.length * 2, index + 1));
+        }
+        agents[index] = agent;
+        byUID.put(agent.getUID(), agent);
+        size++;
+        byID = agents;
+        return true;
+    }
+
+    /**
+     * Removes an agent from the registry.
+     *
+     * @param agent, the agent to remove.
+     * @return true if the agent was registered.
+     */
+    public synchronized boolean unregister(Agent agent) {
+        if(findByID(agent.getAgentID()) != agent) {
+            return false;
+        }
+
+        Agent[] agents = byID;
+        agents[agent.getAgentID() - Agent.FIRST_AGENT_ID] = null;
+        byUID.remove(agent.getUID());
+        if(agent.getCodeName() != null) {
+            byCodeName.remove(agent.getCodeName(), agent);
+        }
+        size--;
+        byID = agents;
+        return true;
+    }
+
+    /**
+     * Changes the code name of a registered agent and updates the code name index.
+     * The UID keeps the code name the agent was created with.
+     *
+     * @param agent, the agent to rename.
+     * @param codeName, the new code name.
+     * @return true if the agent was renamed, false if the code name is already taken.
+     */
+    public synchronized boolean rename(Agent agent, String codeName) {
+        if(codeName.equals(agent.getCodeName())) {
+            return true;
+        }
+        if(byCodeName.putIfAbsent(codeName, agent) != null) {
+            System.out.println("Code name already registered.");
+            return false;
+        }
+        if(agent.getCodeName() != null) {
+            byCodeName.remove(agent.getCodeName(), agent);
+        }
+        agent.setCodeName(codeName);
+        return true;
+    }
+
+    /**
+     * Looks up an agent by agent ID.
+     *
+     * @param agentID, the agent ID.
+     * @return the agent, or null if no agent with this ID is registered.
+     */
+    public Agent findByID(int agentID) {
+        Agent[] agents = byID;
+        int index = agentID - Agent.FIRST_AGENT_ID;
+        return index >= 0 && index < agents.length ? agents[index] : null;
+    }
+
+    /**
+     * Looks up a secret agent by agent ID.
+     *
+     * @param agentID, the agent ID.
+     * @return the secret agent, or null if no secret agent with this ID is registered.
+     */
+    public SecretAgent findSecretAgent(int agentID) {
+        Agent agent = findByID(agentID);
+        return agent instanceof SecretAgent ? (SecretAgent) agent : null;
+    }
+
+    /**
+     * Looks up an agent by UID.
+     *
+     * @param UID, the agent's UID.
+     * @return the agent, or null if no agent with this UID is registered.
+     */
+    public Agent findByUID(String UID) {
+        return byUID.get(UID);
+    }
+
+    /**
+     * Looks up an agent by code name.
+     *
+     * @param codeName, the agent's code name.
+     * @return the agent, or null if no agent with this code name is registered.
+     */
+    public Agent findByCodeName(String codeName) {
+        return byCodeName.get(codeName);
+    }
+
+    /**
+     * Accessor for the number of registered agents.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Inbox with a limit on the number of messages and on the bytes they take up.
+ * Message sizes are also reserved from a memory budget, which can be shared by many inboxes to cap
+ * the memory used by all of them together.
+ * When a new message doesn't fit, the overflow policy decides whether the oldest messages are dropped,
+ * the new message is rejected, or the oldest messages are spilled to a message log.
+ *
+ * Spilled messages are not in memory, so they are not included in size, iteration or export.
+ * They are read back (recent to oldest) once every message in memory has been read.
+ *
+ * Author: Fatima Navid
+ */
+public class BoundedInbox extends Inbox {
+    private final int maxMessages;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private final InboxMemoryBudget budget;
+    private final MessageLog spillLog;
+
+    /**
+     * Bytes reserved for every message in memory, so the same amount is released even if its content changes.
+     */
+    private final Map<Message, Integer> reserved = new IdentityHashMap<>();
+    private long usedBytes;
+
+    /**
+     * Messages spilled to the log, most recent first.
+     */
+    private final Deque<SpilledMessage> spilled = new ArrayDeque<>();
+
+    /**
+     * Constructor for a bounded inbox that uses the shared memory budget.
+     *
+     * @param maxMessages, the maximum number of messages held in memory.
+     * @param maxBytes, the maximum number of bytes held in memory.
+     * @param policy, what to do when a new message doesn't fit (SPILL_TO_DISK needs a log, see the other constructor).
+     */
+    public BoundedInbox(int maxMessages, long maxBytes, OverflowPolicy policy) {
+        this(maxMessages, maxBytes, policy, InboxMemoryBudget.SHARED, null);
+    }
+
+    /**
+     * Constructor for a bounded inbox.
+     * If the policy is SPILL_TO_DISK but no log is given, new messages are rejected instead.
+     *
+     * @param maxMessages, the maximum number of messages held in memory.
+     * @param maxBytes, the maximum number of bytes held in memory.
+     * @param policy, what to do when a new message doesn't fit.
+     * @param budget, the memory budget to reserve message sizes from.
+     * @param spillLog, the log to spill messages to, or null.
+     */
+    public BoundedInbox(int maxMessages, long maxBytes, OverflowPolicy policy, InboxMemoryBudget budget,
+                        MessageLog spillLog) {
+        if(policy == OverflowPolicy.SPILL_TO_DISK && spillLog == null) {
+            System.out.println("No log to spill to, new messages will be rejected when the inbox is full.");
+            policy = OverflowPolicy.REJECT_NEW;
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.budget = budget;
+        this.spillLog = spillLog;
+    }
+
+    /**
+     * Method to add a message to the inbox, making room first as the overflow policy allows.
+     * A message larger than the byte limit or the whole budget is rejected straight away, without making room.
+     * So is a message the budget has no room for even once this inbox is empty, because other inboxes sharing
+     * the budget hold the rest of it.
+     *
+     * @param message, message to add to the inbox.
+     * @return true if the message was added, false if it was rejected.
+     */
+    @Override
+    public boolean receive(Message message) {
+        int bytes = message.sizeInBytes();
+        if(bytes > maxBytes || bytes > budget.getLimit()) {
+            return false;
+        }
+
+        //The budget is only reserved once the inbox's own limits are met.
+        while(super.size() >= maxMessages || usedBytes + bytes > maxBytes || !budget.tryReserve(bytes)) {
+            Message oldest = super.getOldest();
+            if(policy == OverflowPolicy.REJECT_NEW || oldest == null) {
+                return false;
+            }
+            //Only this inbox's own bytes can be freed, so stop before dropping anything that wouldn't make room.
+            if(budget.getUsed() - usedBytes + bytes > budget.getLimit()) {
+                return false;
+            }
+            if(policy == OverflowPolicy.SPILL_TO_DISK && !spill(oldest)) {
+                return false;
+            }
+            delete(oldest);
+        }
+
+        reserved.put(message, bytes);
+        usedBytes += bytes;
+        return super.receive(message);
+    }
+
+    /**
+     * Method to read messages from the inbox (recent to oldest).
+     * Once the messages in memory have all been read, spilled messages are read back from the log.
+     *
+     * @return the most recent message received.
+     */
+    @Override
+    public Message read() {
+        if(super.getRecent() == null && !spilled.isEmpty()) {
+            return restore(spilled.removeFirst());
+        }
+        return super.read();
+    }
+
+    /**
+     * Method to remove a message from the inbox and give its bytes back.
+     *
+     * @param message, the message to delete from the inbox.
+     * @return true if the message was deleted.
+     */
+    @Override
+    public boolean delete(Message message) {
+        if(!super.delete(message)) {
+            return false;
+        }
+
+        Integer bytes = reserved.remove(message);
+        if(bytes != null) {
+            usedBytes -= bytes;
+            budget.release(bytes);
+        }
+        return true;
+    }
+
+    /**
+     * Appends a message to the spill log.
+     *
+     * @param message, the message to spill.
+     * @return true if the message was stored.
+     */
+    private boolean spill(Message message) {
+        long offset;
+        try {
+            offset = spillLog.append(message);
+        } catch(IOException e) {
+            System.out.println("Message could not be spilled: " + e.getMessage());
+            return false;
+        }
+        if(offset < 0) {
+            return false;
+        }
+
+        spilled.addFirst(new SpilledMessage(message.getFrom(), message.getTo(), offset));
+        return true;
+    }
+
+    /**
+     * Reads a spilled message back from the log and marks it as deleted there.
+     *
+     * @param entry, the spilled message.
+     * @return the message read back.
+     */
+    private Message restore(SpilledMessage entry) {
+        MessageRecord record = spillLog.read(entry.offset);
+        Message message = new Message(entry.from, entry.to, record.getContent(), record.getSecrecy());
+        if(record.isEncrypted()) {
+            message.setEncryptedContent(message.getContent());
+            message.setCompressed(record.isCompressed());
+        }
+        message.setKeyID(record.getKeyID());
+
+        try {
+            spillLog.appendDelete(entry.offset);
+        } catch(IOException e) {
+            System.out.println("Delete could not be stored: " + e.getMessage());
+        }
+        return message;
+    }
+
+    /**
+     * Accessor for the number of messages spilled to the log.
+     */
+    public int getSpilledCount() {
+        return spilled.size();
+    }
+
+    /**
+     * Accessor for the number of bytes held in memory.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Accessors for the limits and the overflow policy.
+     */
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * A message in the spill log. The sender and receiver are kept so the message can be rebuilt.
+     */
+    private static class SpilledMessage {
+        private final Agent from;
+        private final Agent to;
+        private final long offset;
+
+        private SpilledMessage(Agent from, Agent to, long offset) {
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+        }
+    }
+}
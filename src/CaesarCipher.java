@@ -0,0 +1,152 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Caesar cipher that adds a key to every character of a message.
+ * Text is shifted per character (wrapping within the 16 bit char range) and bytes are shifted per byte.
+ *
+ * Author: Fatima Navid
+ */
+public class CaesarCipher implements MessageCipher {
+    /**
+     * Per-thread buffer reused when shifting text, and the largest buffer size kept between calls.
+     */
+    private static final int MAX_SHIFT_BUFFER = 1 << 16;
+    private static final ThreadLocal<char[]> SHIFT_BUFFER = ThreadLocal.withInitial(() -> new char[256]);
+
+    /**
+     * Loops used to shift characters and bytes: vectorized if the JDK Vector API is available, scalar otherwise.
+     */
+    private static final CaesarShifter SHIFTER = loadShifter();
+
+    private final int key;
+
+    /**
+     * Constructor for a caesar cipher with the given key.
+     *
+     * @param key, an int added to each character when encrypting.
+     */
+    public CaesarCipher(int key) {
+        this.key = key;
+    }
+
+    @Override
+    public String encrypt(String content) {
+        return shift(content, key);
+    }
+
+    @Override
+    public String decrypt(String content) {
+        return shift(content, -key);
+    }
+
+    @Override
+    public int encrypt(ByteBuffer input, ByteBuffer output) {
+        return shift(input, output, key);
+    }
+
+    @Override
+    public int decrypt(ByteBuffer input, ByteBuffer output) {
+        return shift(input, output, -key);
+    }
+
+    @Override
+    public int encryptedLength(int inputLength) {
+        return inputLength;
+    }
+
+    /**
+     * Accessor for the key.
+     */
+    public int getKey() {
+        return key;
+    }
+
+    /**
+     * Caesar ciphers with the same key are equal, as they encrypt the same way.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CaesarCipher && ((CaesarCipher) other).key == key;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(key);
+    }
+
+    /**
+     * Loads the vectorized shifter if it was compiled (src-vector) and the jdk.incubator.vector module is present
+     * (java --add-modules jdk.incubator.vector). Otherwise, or if the property agents.vector is set to false,
+     * the scalar shifter is used.
+     *
+     * @return the shifter to use.
+     */
+    private static CaesarShifter loadShifter() {
+        boolean vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        if(vectorModule && !"false".equals(System.getProperty("agents.vector"))) {
+            try {
+                return (CaesarShifter) Class.forName("VectorCaesarShifter").getDeclaredConstructor().newInstance();
+            } catch(ReflectiveOperationException | LinkageError e) {
+                //Not compiled with the module, fall back to the scalar loops.
+            }
+        }
+        return new ScalarCaesarShifter();
+    }
+
+    /**
+     * Accessor to check if caesar shifts use the JDK Vector API.
+     */
+    public static boolean isVectorized() {
+        return !(SHIFTER instanceof ScalarCaesarShifter);
+    }
+
+    /**
+     * Accessor for the shift loops in use, for benchmarks.
+     */
+    static CaesarShifter shifter() {
+        return SHIFTER;
+    }
+
+    /**
+     * Adds the key to every character of the text in a reusable buffer, so the only allocation is the result.
+     *
+     * @param text, the text to shift.
+     * @param key, the amount to add to each character.
+     * @return the shifted text.
+     */
+    public static String shift(String text, int key) {
+        int length = text.length();
+        char[] buffer = SHIFT_BUFFER.get();
+        if(buffer.length < length) {
+            buffer = new char[length];
+            //Only keep buffers up to the limit so one huge message doesn't hold memory for the thread forever.
+            if(length <= MAX_SHIFT_BUFFER) {
+                SHIFT_BUFFER.set(buffer);
+            }
+        }
+
+        text.getChars(0, length, buffer, 0);
+        SHIFTER.shift(buffer, length, key);
+
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * Adds the key to every remaining byte of the input and writes the result into the output.
+     *
+     * @param input, the bytes to shift.
+     * @param output, the buffer to write the shifted bytes into.
+     * @param key, the amount to add to each byte.
+     * @return the number of bytes written, or -1 if the output is too small.
+     */
+    private static int shift(ByteBuffer input, ByteBuffer output, int key) {
+        int length = input.remaining();
+        if(output.remaining() < length) {
+            System.out.println("Output buffer is too small.");
+            return -1;
+        }
+
+        SHIFTER.shift(input, output, key);
+        return length;
+    }
+}
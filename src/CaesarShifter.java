@@ -0,0 +1,28 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for the loops that add a caesar key to every character or byte.
+ * CaesarCipher uses the vectorized loops when the JDK Vector API is available, and the scalar loops otherwise.
+ *
+ * Author: Fatima Navid
+ */
+interface CaesarShifter {
+    /**
+     * Adds the key to the first characters of an array, wrapping within the 16 bit char range.
+     *
+     * @param characters, the characters to shift in place.
+     * @param length, the number of characters to shift.
+     * @param key, the amount to add to each character.
+     */
+    void shift(char[] characters, int length, int key);
+
+    /**
+     * Adds the key to every remaining byte of the input and writes the result into the output.
+     * The output must have room for every remaining input byte.
+     *
+     * @param input, the bytes to shift.
+     * @param output, the buffer to write the shifted bytes into.
+     * @param key, the amount to add to each byte.
+     */
+    void shift(ByteBuffer input, ByteBuffer output, int key);
+}
@@ -0,0 +1,34 @@
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * ChaCha20-Poly1305 cipher for messages.
+ *
+ * Author: Fatima Navid
+ */
+public class ChaCha20Cipher extends AeadCipher {
+    /**
+     * Constructor for a ChaCha20-Poly1305 cipher with a raw key.
+     *
+     * @param key, 32 key bytes.
+     */
+    public ChaCha20Cipher(byte[] key) {
+        this(new SecretKeySpec(key, "ChaCha20"));
+    }
+
+    /**
+     * Constructor for a ChaCha20-Poly1305 cipher with a secret key.
+     *
+     * @param key, a ChaCha20 secret key.
+     */
+    public ChaCha20Cipher(SecretKey key) {
+        super(key, "ChaCha20-Poly1305");
+    }
+
+    @Override
+    protected AlgorithmParameterSpec parameters(byte[] nonce) {
+        return new IvParameterSpec(nonce);
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named channel that secret agents subscribe to, for sending one message to every subscriber.
+ * A published message is encrypted once, and each subscriber that passes the clearance checks gets
+ * a copy in its inbox that shares the encrypted content, so the content is stored once whatever the
+ * number of subscribers. The copies are only small message objects that link the inbox together.
+ *
+ * Subscribers are kept grouped by clearance, so publishing checks clearance once per level.
+ * Subscribing, unsubscribing and publishing are safe from any thread. Agents without a clearance can't subscribe.
+ *
+ * Author: Fatima Navid
+ */
+public class Channel {
+    private final String name;
+    private final Map<Clearance, Set<SecretAgent>> subscribers = new EnumMap<>(Clearance.class);
+
+    /**
+     * Constructor for a channel with no subscribers.
+     *
+     * @param name, the name of the channel.
+     */
+    public Channel(String name) {
+        this.name = name;
+        for(Clearance level : Clearance.values()) {
+            subscribers.put(level, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Adds a subscriber to the channel.
+     *
+     * @param agent, the agent to subscribe.
+     * @return true if the agent was subscribed, false if it already was or has no clearance.
+     */
+    public boolean subscribe(SecretAgent agent) {
+        Set<SecretAgent> group = group(agent);
+        if(group == null) {
+            System.out.println("Agent has no clearance to subscribe with.");
+            return false;
+        }
+        return group.add(agent);
+    }
+
+    /**
+     * Removes a subscriber from the channel.
+     *
+     * @param agent, the agent to unsubscribe.
+     * @return true if the agent was unsubscribed, false if it wasn't subscribed.
+     */
+    public boolean unsubscribe(SecretAgent agent) {
+        Set<SecretAgent> group = group(agent);
+        return group != null && group.remove(agent);
+    }
+
+    /**
+     * Checks if an agent is subscribed to the channel.
+     */
+    public boolean isSubscribed(SecretAgent agent) {
+        Set<SecretAgent> group = group(agent);
+        return group != null && group.contains(agent);
+    }
+
+    /**
+     * Helper method to find the subscribers with the same clearance as an agent.
+     *
+     * @param agent, the agent.
+     * @return the subscribers at the agent's clearance, or null if the agent has no clearance.
+     */
+    private Set<SecretAgent> group(SecretAgent agent) {
+        return agent.getAgentClearance() == null ? null : subscribers.get(agent.getAgentClearance());
+    }
+
+    /**
+     * Publishes a message to every subscriber, encrypted with one cipher.
+     * Subscribers the publisher may not send to, or whose clearance is below the secrecy, are rejected.
+     * The publisher doesn't have to be subscribed, and doesn't receive its own message if it is.
+     *
+     * @param publisher, the agent publishing the message.
+     * @param content, the content of the message.
+     * @param secrecy, the clearance level of the message.
+     * @param cipher, cipher used for encryption.
+     * @return the outcome for every subscriber.
+     */
+    public SendResult publish(SecretAgent publisher, String content, Clearance secrecy, MessageCipher cipher) {
+        Map<Clearance, MessageCipher> ciphers = new EnumMap<>(Clearance.class);
+        for(Clearance level : Clearance.values()) {
+            ciphers.put(level, cipher);
+        }
+        return publish(publisher, content, secrecy, ciphers);
+    }
+
+    /**
+     * Publishes a message to every subscriber, with a cipher for each subscriber clearance level.
+     * The content is encrypted once per cipher.
+     *
+     * @param publisher, the agent publishing the message.
+     * @param content, the content of the message.
+     * @param secrecy, the clearance level of the message.
+     * @param ciphers, cipher used for each subscriber clearance level.
+     * @return the outcome for every subscriber.
+     */
+    public SendResult publish(SecretAgent publisher, String content, Clearance secrecy,
+                              Map<Clearance, MessageCipher> ciphers) {
+        Map<Clearance, Set<SecretAgent>> receivers = subscribers;
+        if(isSubscribed(publisher)) {
+            //Leave the publisher out of its own level.
+            receivers = new EnumMap<>(subscribers);
+            Set<SecretAgent> others = new HashSet<>(subscribers.get(publisher.getAgentClearance()));
+            others.remove(publisher);
+            receivers.put(publisher.getAgentClearance(), others);
+        }
+
+        Map<Clearance, Set<SecretAgent>> nonEmpty = new EnumMap<>(Clearance.class);
+        for(Map.Entry<Clearance, Set<SecretAgent>> group : receivers.entrySet()) {
+            if(!group.getValue().isEmpty()) {
+                nonEmpty.put(group.getKey(), group.getValue());
+            }
+        }
+        return publisher.sendToGroups(nonEmpty, content, secrecy, ciphers, name);
+    }
+
+    /**
+     * Accessor for the name of the channel.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Accessor for the number of subscribers.
+     */
+    public int getSubscriberCount() {
+        int count = 0;
+        for(Set<SecretAgent> group : subscribers.values()) {
+            count += group.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of channels by name, for topic based publish and subscribe.
+ * Channels are created the first time an agent subscribes to them.
+ *
+ * Author: Fatima Navid
+ */
+public class ChannelRegistry {
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Finds a channel, creating it if it doesn't exist.
+     *
+     * @param name, the name of the channel.
+     * @return the channel.
+     */
+    public Channel channel(String name) {
+        return channels.computeIfAbsent(name, Channel::new);
+    }
+
+    /**
+     * Looks up a channel by name.
+     *
+     * @param name, the name of the channel.
+     * @return the channel, or null if there is no channel with this name.
+     */
+    public Channel find(String name) {
+        return channels.get(name);
+    }
+
+    /**
+     * Removes a channel and all of its subscriptions.
+     *
+     * @param name, the name of the channel.
+     * @return true if the channel was removed.
+     */
+    public boolean remove(String name) {
+        return channels.remove(name) != null;
+    }
+
+    /**
+     * Subscribes an agent to a channel, creating the channel if needed.
+     *
+     * @param name, the name of the channel.
+     * @param agent, the agent to subscribe.
+     * @return true if the agent was subscribed, false if it already was.
+     */
+    public boolean subscribe(String name, SecretAgent agent) {
+        return channel(name).subscribe(agent);
+    }
+
+    /**
+     * Unsubscribes an agent from a channel.
+     *
+     * @param name, the name of the channel.
+     * @param agent, the agent to unsubscribe.
+     * @return true if the agent was unsubscribed.
+     */
+    public boolean unsubscribe(String name, SecretAgent agent) {
+        Channel channel = channels.get(name);
+        return channel != null && channel.unsubscribe(agent);
+    }
+
+    /**
+     * Publishes a message on a channel. Prints an error message if there is no channel with the name.
+     *
+     * @param name, the name of the channel.
+     * @param publisher, the agent publishing the message.
+     * @param content, the content of the message.
+     * @param secrecy, the clearance level of the message.
+     * @param cipher, cipher used for encryption.
+     * @return the outcome for every subscriber, empty if there is no such channel.
+     */
+    public SendResult publish(String name, SecretAgent publisher, String content, Clearance secrecy,
+                              MessageCipher cipher) {
+        Channel channel = channels.get(name);
+        if(channel == null) {
+            System.out.println("No channel named " + name + ".");
+            return new SendResult();
+        }
+        return channel.publish(publisher, content, secrecy, cipher);
+    }
+
+    /**
+     * Accessor for the number of channels.
+     */
+    public int size() {
+        return channels.size();
+    }
+}
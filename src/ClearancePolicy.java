@@ -0,0 +1,111 @@
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Rules deciding which clearance levels can communicate, precomputed into bit masks.
+ *
+ * An agent at one level can send to, and decrypt messages from, agents up to a maximum number of
+ * levels above it. The policy can also require a message's secrecy to be at or below the receiver's clearance.
+ * Every pair of levels is worked out when the policy is created, so each check is a single mask lookup.
+ *
+ * Author: Fatima Navid
+ */
+public class ClearancePolicy {
+    private static final Clearance[] LEVELS = Clearance.values();
+
+    /**
+     * Policy matching the original rules: one level above at most, and message secrecy is not checked.
+     */
+    public static final ClearancePolicy STANDARD = new ClearancePolicy(SecretAgent.MAX_CLEARANCE_DIFFERENCE, false);
+
+    /**
+     * For each level, a bit per level it may communicate with (bit n is the level with ordinal n).
+     */
+    private final long[] reach = new long[LEVELS.length];
+
+    /**
+     * For each receiver level, a bit per message secrecy it may receive.
+     * The extra bit after the last level stands for messages with no secrecy, which are always allowed.
+     */
+    private final long[] secrecy = new long[LEVELS.length];
+
+    /**
+     * Constructor for a policy with the same maximum difference for every level.
+     *
+     * @param maxDifference, how many levels above itself an agent can communicate with.
+     * @param secrecyLimitedByClearance, true if receivers can only get messages at or below their clearance.
+     */
+    public ClearancePolicy(int maxDifference, boolean secrecyLimitedByClearance) {
+        this(sameForAll(maxDifference), secrecyLimitedByClearance);
+    }
+
+    /**
+     * Constructor for a policy with a maximum difference for each level.
+     * Levels missing from the map use SecretAgent.MAX_CLEARANCE_DIFFERENCE.
+     *
+     * @param maxDifferences, how many levels above itself an agent at each level can communicate with.
+     * @param secrecyLimitedByClearance, true if receivers can only get messages at or below their clearance.
+     */
+    public ClearancePolicy(Map<Clearance, Integer> maxDifferences, boolean secrecyLimitedByClearance) {
+        for(Clearance from : LEVELS) {
+            int maxDifference = maxDifferences.getOrDefault(from, SecretAgent.MAX_CLEARANCE_DIFFERENCE);
+            for(Clearance to : LEVELS) {
+                if(to.getHierarchy() - from.getHierarchy() <= maxDifference) {
+                    reach[from.ordinal()] |= 1L << to.ordinal();
+                }
+                if(!secrecyLimitedByClearance || to.getHierarchy() <= from.getHierarchy()) {
+                    secrecy[from.ordinal()] |= 1L << to.ordinal();
+                }
+            }
+            secrecy[from.ordinal()] |= 1L << LEVELS.length;
+        }
+    }
+
+    /**
+     * Checks if an agent can send a message to a receiver.
+     *
+     * @param sender, the sender's clearance level.
+     * @param receiver, the receiver's clearance level.
+     * @return true if the sender may send to the receiver.
+     */
+    public boolean canSend(Clearance sender, Clearance receiver) {
+        return (reach[sender.ordinal()] >>> receiver.ordinal() & 1L) != 0;
+    }
+
+    /**
+     * Checks if an agent can decrypt a message from a sender.
+     *
+     * @param reader, the reader's clearance level.
+     * @param sender, the sender's clearance level.
+     * @return true if the reader may decrypt the sender's messages.
+     */
+    public boolean canRead(Clearance reader, Clearance sender) {
+        return (reach[reader.ordinal()] >>> sender.ordinal() & 1L) != 0;
+    }
+
+    /**
+     * Checks if a receiver can be given a message with a secrecy level.
+     *
+     * @param receiver, the receiver's clearance level.
+     * @param messageSecrecy, the message's secrecy, or null if it has none.
+     * @return true if the receiver may get the message.
+     */
+    public boolean canReceive(Clearance receiver, Clearance messageSecrecy) {
+        int bit = messageSecrecy == null ? LEVELS.length : messageSecrecy.ordinal();
+        return (secrecy[receiver.ordinal()] >>> bit & 1L) != 0;
+    }
+
+    /**
+     * Helper method to build a map with the same maximum difference for every level.
+     *
+     * @param maxDifference, the maximum difference.
+     * @return map from each level to the maximum difference.
+     */
+    private static Map<Clearance, Integer> sameForAll(int maxDifference) {
+        Map<Clearance, Integer> maxDifferences = new EnumMap<>(Clearance.class);
+        for(Clearance level : LEVELS) {
+            maxDifferences.put(level, maxDifference);
+        }
+        return maxDifferences;
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe inbox that lets many senders deliver to the same agent at once.
+ * Senders push messages onto a lock-free stack (linked through Message.next) using compare-and-set.
+ * The owning agent drains the stack into the normal inbox list before reading,
+ * so messages are still read from recent to oldest.
+ *
+ * Only the owning agent should read from the inbox (many senders, one reader).
+ *
+ * Author: Fatima Navid
+ */
+public class ConcurrentInbox extends Inbox {
+    /**
+     * Head of the stack of messages that have been delivered but not yet drained (most recent first).
+     */
+    private final AtomicReference<Message> pending = new AtomicReference<>();
+
+    /**
+     * Number of messages in the pending stack, used to report the inbox depth from other threads.
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * Method to add a message to the inbox, safe to call from any thread.
+     * The message is pushed onto the pending stack without taking a lock.
+     *
+     * @param message, message to add to the inbox.
+     * @return true, as the message is always added.
+     */
+    @Override
+    public boolean receive(Message message) {
+        Message head;
+        //Retry until no other sender has changed the head in between.
+        do {
+            head = pending.get();
+            message.setNext(head);
+        } while(!pending.compareAndSet(head, message));
+        pendingCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Method to read the most recent message from the inbox.
+     * Pending messages are moved into the inbox first.
+     *
+     * @return the most recent message received.
+     */
+    @Override
+    public Message read() {
+        drain();
+        return super.read();
+    }
+
+    /**
+     * Method to remove a message from the inbox.
+     *
+     * @param message, the message to delete from the inbox
+     * @return true if the message was deleted.
+     */
+    @Override
+    public boolean delete(Message message) {
+        drain();
+        return super.delete(message);
+    }
+
+    /**
+     * Prints out the content of all the messages in the inbox (recent to oldest).
+     */
+    @Override
+    public void printAll() {
+        drain();
+        super.printAll();
+    }
+
+    /**
+     * Accessor for the most recent message.
+     */
+    @Override
+    public Message getRecent() {
+        drain();
+        return super.getRecent();
+    }
+
+    /**
+     * Accessor for the oldest message.
+     */
+    @Override
+    public Message getOldest() {
+        drain();
+        return super.getOldest();
+    }
+
+    /**
+     * Index queries, which first move pending messages into the inbox so they are included.
+     */
+    @Override
+    public Iterator<Message> fromSender(int agentID) {
+        drain();
+        return super.fromSender(agentID);
+    }
+
+    @Override
+    public Iterator<Message> withSecrecy(Clearance secrecy) {
+        drain();
+        return super.withSecrecy(secrecy);
+    }
+
+    @Override
+    public Iterator<Message> sequenceBetween(long fromSequence, long toSequence) {
+        drain();
+        return super.sequenceBetween(fromSequence, toSequence);
+    }
+
+    @Override
+    public Iterator<Message> receivedBetween(long fromTime, long toTime) {
+        drain();
+        return super.receivedBetween(fromTime, toTime);
+    }
+
+    /**
+     * Accessor for the number of messages in the inbox.
+     */
+    @Override
+    public int size() {
+        drain();
+        return super.size();
+    }
+
+    /**
+     * Accessor for the number of messages including pending ones, safe to call from any thread.
+     */
+    @Override
+    public int approximateSize() {
+        return super.approximateSize() + pendingCount.get();
+    }
+
+    /**
+     * Moves every pending message into the inbox list.
+     * The whole stack is taken in one atomic swap, then added oldest first so the most recent stays on top.
+     */
+    private void drain() {
+        Message stack = pending.getAndSet(null);
+        if(stack == null) {
+            return;
+        }
+
+        //Reverse the stack so that the oldest pending message is received first.
+        Message oldestFirst = null;
+        while(stack != null) {
+            Message next = stack.getNext();
+            stack.setNext(oldestFirst);
+            oldestFirst = stack;
+            stack = next;
+        }
+
+        int drained = 0;
+        while(oldestFirst != null) {
+            Message next = oldestFirst.getNext();
+            super.receive(oldestFirst);
+            oldestFirst = next;
+            drained++;
+        }
+        pendingCount.addAndGet(-drained);
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Enumerated data type to represent the outcome of sending a message to one receiver.
+ *
+ * Author: Fatima Navid
+ */
+public enum DeliveryStatus {
+        DELIVERED("Message delivered."),
+        SENDER_MISMATCH("Sender does not match."),
+        RECEIVER_MISMATCH("Receiver does not match."),
+        INSUFFICIENT_CLEARANCE("Sender has insufficient clearance."),
+        SECRECY_TOO_HIGH("Message secrecy is above receiver's clearance."),
+        NO_KEY("No key supplied for receiver's clearance."),
+        UNKNOWN_RECEIVER("Receiver is not registered."),
+        ENCRYPTION_FAILED("Message could not be encrypted."),
+        INBOX_FULL("Receiver's inbox is full."),
+        QUEUE_FULL("Delivery queue is full."),
+        ROUTER_CLOSED("Message router is closed."),
+        FORWARDED("Message forwarded to the receiver's shard."),
+        SHARD_UNREACHABLE("Receiver's shard could not be reached.");
+
+        /**
+         * Message describing the outcome, as printed by send.
+         */
+        private final String description;
+
+        /**
+         * Constructor to give each outcome a description.
+         *
+         * @param description, text describing the outcome.
+         */
+        private DeliveryStatus(final String description) {
+                this.description = description;
+        }
+
+        /**
+         * Getter for the description.
+         */
+        public String getDescription() {
+                return description;
+        }
+}
@@ -0,0 +1,197 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Least recently used cache of encrypted text, so encrypting the same content with the same cipher again
+ * returns the earlier result (the same string) instead of running the cipher.
+ * Ciphers are matched with equals, so caesar ciphers with the same key share entries.
+ *
+ * With an AEAD cipher a cache hit reuses the earlier nonce, so identical messages get identical encrypted
+ * text. That shows which messages are the same, which is the price of the cache.
+ *
+ * The content itself is never kept. Entries are found by an HMAC-SHA256 of the content under a random key
+ * made for each cache, so the cache can't be searched for guessed content either. The encrypted text is kept
+ * until the entry is evicted or clear is called (with a caesar cipher that is as good as keeping the content).
+ *
+ * Author: Fatima Navid
+ */
+public class EncryptionCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final LinkedHashMap<CacheKey, String> cache;
+
+    /**
+     * Per-thread HMAC under this cache's random key, used to digest content.
+     */
+    private final ThreadLocal<Mac> digests;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor for a cache with the default capacity.
+     */
+    public EncryptionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for a cache.
+     *
+     * @param capacity, the number of encrypted texts kept.
+     */
+    public EncryptionCache(int capacity) {
+        byte[] digestKey = new byte[32];
+        new SecureRandom().nextBytes(digestKey);
+        SecretKeySpec spec = new SecretKeySpec(digestKey, "HmacSHA256");
+        digests = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(spec);
+                return mac;
+            } catch(GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not supported.", e);
+            }
+        });
+
+        //Access order, so the eldest entry is the least recently used one.
+        cache = new LinkedHashMap<CacheKey, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Wraps a cipher so that encrypting text goes through the cache. Everything else is passed straight on.
+     *
+     * @param cipher, the cipher to wrap.
+     * @return a cipher that uses the cache.
+     */
+    public MessageCipher wrap(MessageCipher cipher) {
+        return new CachingCipher(cipher);
+    }
+
+    /**
+     * Encrypts text with a cipher, or returns the cached result of encrypting the same text with an equal cipher.
+     * Failed encryptions are not cached.
+     *
+     * @param cipher, the cipher to encrypt with.
+     * @param content, the text to encrypt.
+     * @return the encrypted text, or null if encryption failed.
+     */
+    public String encrypt(MessageCipher cipher, String content) {
+        CacheKey key = new CacheKey(cipher, digests.get().doFinal(content.getBytes(StandardCharsets.UTF_8)));
+        synchronized(this) {
+            String encrypted = cache.get(key);
+            if(encrypted != null) {
+                hits++;
+                return encrypted;
+            }
+            misses++;
+        }
+
+        //Encrypt outside the lock, so other threads aren't held up by the cipher.
+        String encrypted = cipher.encrypt(content);
+        if(encrypted != null) {
+            synchronized(this) {
+                cache.put(key, encrypted);
+            }
+        }
+        return encrypted;
+    }
+
+    /**
+     * Accessors for the number of cache hits and misses, and the number of cached entries.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Removes every entry, so no encrypted text is kept.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Cache key: a cipher and the digest of the content it encrypts.
+     */
+    private static class CacheKey {
+        private final MessageCipher cipher;
+        private final byte[] digest;
+
+        private CacheKey(MessageCipher cipher, byte[] digest) {
+            this.cipher = cipher;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey key = (CacheKey) other;
+            return cipher.equals(key.cipher) && Arrays.equals(digest, key.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return cipher.hashCode() * 31 + Arrays.hashCode(digest);
+        }
+    }
+
+    /**
+     * Cipher that encrypts text through the cache.
+     */
+    private class CachingCipher implements MessageCipher {
+        private final MessageCipher cipher;
+
+        private CachingCipher(MessageCipher cipher) {
+            this.cipher = cipher;
+        }
+
+        @Override
+        public String encrypt(String content) {
+            return EncryptionCache.this.encrypt(cipher, content);
+        }
+
+        @Override
+        public String decrypt(String content) {
+            return cipher.decrypt(content);
+        }
+
+        @Override
+        public int encrypt(ByteBuffer input, ByteBuffer output) {
+            return cipher.encrypt(input, output);
+        }
+
+        @Override
+        public int decrypt(ByteBuffer input, ByteBuffer output) {
+            return cipher.decrypt(input, output);
+        }
+
+        @Override
+        public int encryptedLength(int inputLength) {
+            return cipher.encryptedLength(inputLength);
+        }
+    }
+}
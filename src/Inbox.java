@@ -1,23 +1,120 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * Class to represent inboxes, used to help store messages.
  * Messages are stored as linked lists in an inbox.
+ * The inbox also links together the messages from each sender and the messages with each secrecy level,
+ * and numbers messages in the order they are received, so they can be queried without walking the whole list.
  * 
  * Author: Fatima Navid
  */
-public class Inbox {
+public class Inbox implements Iterable<Message> {
+    /**
+     * Size of the buffer used when exporting the inbox.
+     */
+    private static final int EXPORT_CHUNK_SIZE = 8192;
+
     private Message recent;
+    private Message oldest;
+    private int size;
+
+    /**
+     * Indexes: the most recent message from each sender (by agent ID) and with each secrecy level
+     * (by ordinal, the last slot is for messages without one).
+     */
+    private final SenderIndex recentFromSender = new SenderIndex();
+    private final Message[] recentWithSecrecy = new Message[Clearance.values().length + 1];
+
+    /**
+     * Messages ordered by sequence number (oldest first), used to binary search the range queries, with the
+     * sequence number and receive time each entry had when it was added.
+     * It is only built by a range query, and is null while out of date. Receiving appends to it while there
+     * is room and reading the most recent message takes it off the end. Other deletes leave a stale entry
+     * (its message has left the inbox or been received again), which the searches skip, and the index is
+     * compacted once more than half of it is stale. So receive and delete stay constant time without allocating.
+     */
+    private Message[] sequenceIndex;
+    private long[] indexedSequences;
+    private long[] indexedTimes;
+    private int sequenceIndexSize;
+    private int staleEntries;
+    private long nextSequence;
+    private long lastReceivedAt;
+
+    /**
+     * Store that encrypted payloads are shared through, or null to keep every message's own copy.
+     */
+    private PayloadStore payloads;
 
     /**
      * Method to add a message to the inbox.
-     * The message is added to the end of the list as it is the most recent one.
+     * The message is added to the front of the list as it is the most recent one.
+     * It is given the next sequence number and the receive time, which never goes backwards within an inbox.
      *
      * @param message, message to add to the inbox.
+     * @return true if the message was added (always, for an inbox without limits).
      */
-    public void receive(Message message) {
+    public boolean receive(Message message) {
+        message.setInbox(this);
+        message.setPrevious(null);
+        message.setNext(recent);
         if(recent != null) {
-            message.setNext(recent);
+            recent.setPrevious(message);
+        } else {
+            oldest = message;   //First message in an empty inbox is also the oldest.
         }
         recent = message;
+        size++;
+
+        lastReceivedAt = Math.max(lastReceivedAt, System.currentTimeMillis());
+        message.setReceived(nextSequence++, lastReceivedAt);
+        if(sequenceIndex != null && sequenceIndexSize == sequenceIndex.length && staleEntries > 0) {
+            compactSequenceIndex();
+        }
+        if(sequenceIndex != null && sequenceIndexSize < sequenceIndex.length) {
+            indexedSequences[sequenceIndexSize] = message.getSequence();
+            indexedTimes[sequenceIndexSize] = message.getReceivedAt();
+            sequenceIndex[sequenceIndexSize++] = message;
+        } else {
+            sequenceIndex = null;
+        }
+
+        Message fromSender = recentFromSender.put(message.getFrom().getAgentID(), message);
+        message.setPreviousFromSender(null);
+        message.setNextFromSender(fromSender);
+        if(fromSender != null) {
+            fromSender.setPreviousFromSender(message);
+        }
+
+        int slot = secrecySlot(message.getSecrecy());
+        message.setPreviousWithSecrecy(null);
+        message.setNextWithSecrecy(recentWithSecrecy[slot]);
+        if(recentWithSecrecy[slot] != null) {
+            recentWithSecrecy[slot].setPreviousWithSecrecy(message);
+        }
+        recentWithSecrecy[slot] = message;
+
+        if(payloads != null) {
+            message.sharePayload(payloads);
+        }
+        return true;
     }
 
     /**
@@ -27,69 +124,466 @@ public class Inbox {
      * @return the most recent message received.
      */
     public Message read() {
-        while(recent == null) {
+        if(recent == null) {
             System.out.println("No message to read.");  //Print out an error message if inbox is empty.
             return null;
         }
 
-        Message messageToRead = recent; //Retried the most recent message from the inbox.
-
-        delete(recent);
-        recent = recent.getNext();  //Moves to the next message in the list
+        Message messageToRead = recent; //Retrieve the most recent message from the inbox.
+        delete(messageToRead);
 
         return messageToRead;
     }
 
     /**
      * Method to remove a message from the inbox.
+     * The message is unlinked from its neighbours directly, so no walk through the list is needed.
+     * Messages record the inbox holding them, so a message from another inbox is left alone.
+     *
+     * @param message, the message to delete from the inbox.
+     * @return true if the message was deleted, false if it isn't in this inbox.
+     */
+    public boolean delete(Message message) {
+        if(message == null || message.getInbox() != this) {
+            System.out.println("Message not in inbox.");
+            return false;
+        }
+
+        Message previousMessage = message.getPrevious();
+        Message nextMessage = message.getNext();
+
+        if(previousMessage != null) {
+            previousMessage.setNext(nextMessage);
+        } else {
+            recent = nextMessage;
+        }
+
+        if(nextMessage != null) {
+            nextMessage.setPrevious(previousMessage);
+        } else {
+            oldest = previousMessage;
+        }
+
+        //Next is kept so that a reader can still move on to the following message.
+        message.setPrevious(null);
+        message.setInbox(null);
+        size--;
+
+        if(sequenceIndex != null) {
+            removeFromSequenceIndex(message);
+        }
+        unlinkFromSender(message);
+        unlinkWithSecrecy(message);
+        if(payloads != null) {
+            message.releasePayload(payloads);
+        }
+        return true;
+    }
+
+    /**
+     * Helper method for delete to remove a message from the list of messages from its sender.
      *
-     * @param message, the message to delete from the inbox
+     * @param message, the message being deleted.
      */
-    public void delete(Message message) {
-        Message currentMessage = recent.getNext();  //attribute to keep track of the message to delete
-        Message previousMessage = recent;   //attribute to keep track of the next message in the list
+    private void unlinkFromSender(Message message) {
+        Message previousMessage = message.getPreviousFromSender();
+        Message nextMessage = message.getNextFromSender();
+        if(previousMessage != null) {
+            previousMessage.setNextFromSender(nextMessage);
+        } else if(nextMessage != null) {
+            recentFromSender.put(message.getFrom().getAgentID(), nextMessage);
+        } else {
+            recentFromSender.remove(message.getFrom().getAgentID());  //No messages left from this sender.
+        }
+        if(nextMessage != null) {
+            nextMessage.setPreviousFromSender(previousMessage);
+        }
+        message.setPreviousFromSender(null);
+    }
+
+    /**
+     * Helper method for delete to remove a message from the list of messages with its secrecy level.
+     *
+     * @param message, the message being deleted.
+     */
+    private void unlinkWithSecrecy(Message message) {
+        Message previousMessage = message.getPreviousWithSecrecy();
+        Message nextMessage = message.getNextWithSecrecy();
+        if(previousMessage != null) {
+            previousMessage.setNextWithSecrecy(nextMessage);
+        } else {
+            recentWithSecrecy[secrecySlot(message.getSecrecy())] = nextMessage;
+        }
+        if(nextMessage != null) {
+            nextMessage.setPreviousWithSecrecy(previousMessage);
+        }
+        message.setPreviousWithSecrecy(null);
+    }
 
-        /**
-         * Loop to delete the currentMessage as long as it exists.
-         */
-        while(currentMessage != null) {
-            previousMessage.setNext(previousMessage.getNext());
+    /**
+     * Helper method to find the index slot for a secrecy level.
+     *
+     * @param secrecy, the secrecy level, or null.
+     * @return the slot in recentWithSecrecy.
+     */
+    private static int secrecySlot(Clearance secrecy) {
+        return secrecy == null ? Clearance.values().length : secrecy.ordinal();
+    }
 
-            previousMessage = currentMessage;
-            currentMessage = currentMessage.getNext();
+    /**
+     * Returns an iterator over the messages from a sender (recent to oldest).
+     * Only messages from that sender are visited. Removing through the iterator deletes the message from the inbox.
+     *
+     * @param agentID, the agent ID of the sender.
+     * @return an iterator over the sender's messages.
+     */
+    public Iterator<Message> fromSender(int agentID) {
+        return new IndexIterator(recentFromSender.get(agentID), IndexIterator.SENDER, Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns an iterator over the messages with a secrecy level (recent to oldest).
+     * Only messages with that secrecy level are visited. Removing through the iterator deletes the message from the inbox.
+     *
+     * @param secrecy, the secrecy level, or null for messages without one.
+     * @return an iterator over the messages with the secrecy level.
+     */
+    public Iterator<Message> withSecrecy(Clearance secrecy) {
+        return new IndexIterator(recentWithSecrecy[secrecySlot(secrecy)], IndexIterator.SECRECY, Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns an iterator over the messages with sequence numbers in a range (recent to oldest).
+     * The most recent message in the range is binary searched in the sequence index, and only messages
+     * in the range are visited.
+     *
+     * @param fromSequence, the lowest sequence number to include.
+     * @param toSequence, the sequence number to stop before.
+     * @return an iterator over the messages in the range.
+     */
+    public Iterator<Message> sequenceBetween(long fromSequence, long toSequence) {
+        Message start = null;
+        if(fromSequence < toSequence) {
+            buildSequenceIndex();
+            //The last message below toSequence is just before the first one at or above it.
+            int low = 0;
+            int high = sequenceIndexSize;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(indexedSequences[middle] < toSequence) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            while(low > 0 && isStale(low - 1)) {
+                low--;
+            }
+            if(low > 0 && indexedSequences[low - 1] >= fromSequence) {
+                start = sequenceIndex[low - 1];
+            }
         }
+        return new IndexIterator(start, IndexIterator.INBOX, fromSequence);
+    }
+
+    /**
+     * Returns an iterator over the messages received in a time range (recent to oldest).
+     * Receive times go up with sequence numbers, so the range is turned into a range of sequence numbers.
+     *
+     * @param fromTime, the earliest receive time to include, in milliseconds.
+     * @param toTime, the receive time to stop before, in milliseconds.
+     * @return an iterator over the messages received in the range.
+     */
+    public Iterator<Message> receivedBetween(long fromTime, long toTime) {
+        return sequenceBetween(firstSequenceAt(fromTime), firstSequenceAt(toTime));
+    }
+
+    /**
+     * Helper method for receivedBetween to binary search the sequence index for the first message
+     * received at or after a time. A stale entry found this way still separates the messages received before
+     * the time from those received at or after it, so it doesn't need to be skipped.
+     *
+     * @param time, the receive time in milliseconds.
+     * @return the sequence number of that message, or the next sequence number if there is none.
+     */
+    private long firstSequenceAt(long time) {
+        buildSequenceIndex();
+        int low = 0;
+        int high = sequenceIndexSize;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(indexedTimes[middle] >= time) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low < sequenceIndexSize ? indexedSequences[low] : nextSequence;
+    }
+
+    /**
+     * Helper method for the range queries to rebuild the sequence index if it is out of date.
+     * The list is walked from the oldest message, which is already in sequence order.
+     * Room is left for as many again, so messages received afterwards can be appended.
+     */
+    private void buildSequenceIndex() {
+        if(sequenceIndex != null) {
+            return;
+        }
+        int capacity = Math.max(16, size * 2);
+        sequenceIndex = new Message[capacity];
+        indexedSequences = new long[capacity];
+        indexedTimes = new long[capacity];
+        sequenceIndexSize = 0;
+        staleEntries = 0;
+        for(Message current = oldest; current != null; current = current.getPrevious()) {
+            indexedSequences[sequenceIndexSize] = current.getSequence();
+            indexedTimes[sequenceIndexSize] = current.getReceivedAt();
+            sequenceIndex[sequenceIndexSize++] = current;
+        }
+    }
+
+    /**
+     * Helper method for delete to take a deleted message out of the sequence index.
+     * The most recent entries are taken off the end, along with any stale entries below them.
+     * Otherwise the entry is left stale, and the index is compacted once more than half of it is stale.
+     *
+     * @param message, the message that was deleted.
+     */
+    private void removeFromSequenceIndex(Message message) {
+        if(sequenceIndex[sequenceIndexSize - 1] != message) {
+            staleEntries++;
+            if(staleEntries * 2 > sequenceIndexSize) {
+                compactSequenceIndex();
+            }
+            return;
+        }
+
+        sequenceIndex[--sequenceIndexSize] = null;
+        while(sequenceIndexSize > 0 && isStale(sequenceIndexSize - 1)) {
+            sequenceIndex[--sequenceIndexSize] = null;
+            staleEntries--;
+        }
+    }
+
+    /**
+     * Helper method to check if an entry of the sequence index no longer stands for a message in the inbox.
+     *
+     * @param position, the position of the entry.
+     * @return true if the message has left the inbox or was received again with a new sequence number.
+     */
+    private boolean isStale(int position) {
+        Message message = sequenceIndex[position];
+        return message.getInbox() != this || message.getSequence() != indexedSequences[position];
+    }
+
+    /**
+     * Helper method to remove the stale entries of the sequence index, keeping the rest in order.
+     */
+    private void compactSequenceIndex() {
+        int kept = 0;
+        for(int position = 0; position < sequenceIndexSize; position++) {
+            if(!isStale(position)) {
+                indexedSequences[kept] = indexedSequences[position];
+                indexedTimes[kept] = indexedTimes[position];
+                sequenceIndex[kept++] = sequenceIndex[position];
+            }
+        }
+        Arrays.fill(sequenceIndex, kept, sequenceIndexSize, null);
+        sequenceIndexSize = kept;
+        staleEntries = 0;
     }
 
     /**
      * Prints out the content of all the messages in the inbox (recent to oldest).
      * If there are no messages to read, prints out a message.
+     * Output is buffered and written to the console in chunks instead of one line at a time.
      */
     public void printAll() {
-        if(recent == null) {
-            System.out.println("<no more messages>");
+        PrintWriter console = new PrintWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), false);
+        try {
+            exportTo(console);
+        } catch(IOException e) {
+            //PrintWriter never throws, it only sets its error flag.
         }
+        console.println("<no more messages>");
+        console.flush();
+    }
 
-        //Calls a recursive method to print the contents.
-        printAllRec(recent);
+    /**
+     * Writes the content of all the messages in the inbox (recent to oldest), one message per line.
+     * Content is collected in a fixed size buffer and written in chunks, so memory use doesn't grow with the inbox.
+     *
+     * @param out, the writer to write the contents to.
+     * @return the number of messages written.
+     * @throws IOException if the writer fails.
+     */
+    public int exportTo(Writer out) throws IOException {
+        StringBuilder chunk = new StringBuilder(EXPORT_CHUNK_SIZE);
+        int count = 0;
+        for(Message message : this) {
+            chunk.append(message.getContent()).append('\n');
+            count++;
+            if(chunk.length() >= EXPORT_CHUNK_SIZE) {
+                out.append(chunk);
+                chunk.setLength(0);
+            }
+        }
+        out.append(chunk);
+        out.flush();
+        return count;
     }
 
     /**
-     * Recursive method to print all the contents in the inbox.
+     * Writes the content of all the messages in the inbox (recent to oldest) to a channel as UTF-8,
+     * one message per line. Bytes are written in chunks from a fixed size buffer.
      *
-     * @param currentMessage, message to print the contents of.
+     * @param channel, the channel to write the contents to.
+     * @return the number of messages written.
+     * @throws IOException if the channel fails.
      */
-    private void printAllRec(Message currentMessage) {
-        System.out.println(currentMessage.getContent());
+    public int exportTo(WritableByteChannel channel) throws IOException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buffer = ByteBuffer.allocate(EXPORT_CHUNK_SIZE);
+        CharBuffer newLine = CharBuffer.wrap("\n");
+        int count = 0;
+        for(Message message : this) {
+            encodeTo(encoder, CharBuffer.wrap(message.getContent()), buffer, channel);
+            encodeTo(encoder, newLine.rewind(), buffer, channel);
+            count++;
+        }
 
-        /**
-         * if there is a message to print after the current one, method is recursively called.
-         * Otherwise, a message is printed to the console.
-         */
-        if(currentMessage.getNext() != null) {
-            printAllRec(currentMessage.getNext());
-        } else {
-            System.out.println("<no more messages>");
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
         }
+        return count;
+    }
+
+    /**
+     * Helper method for exportTo to encode text into the buffer, writing the buffer out whenever it fills.
+     *
+     * @param encoder, the UTF-8 encoder.
+     * @param text, the text to encode.
+     * @param buffer, the buffer to encode into.
+     * @param channel, the channel to write full buffers to.
+     * @throws IOException if the channel fails.
+     */
+    private static void encodeTo(CharsetEncoder encoder, CharBuffer text, ByteBuffer buffer,
+                                 WritableByteChannel channel) throws IOException {
+        while(encoder.encode(text, buffer, true).isOverflow()) {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        encoder.reset();
+    }
+
+    /**
+     * Returns an iterator over the messages in the inbox (recent to oldest).
+     * Removing through the iterator deletes the message from the inbox.
+     *
+     * @return an iterator over the messages.
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        return new Iterator<Message>() {
+            private Message nextMessage = getRecent();
+            private Message lastReturned;
+
+            @Override
+            public boolean hasNext() {
+                return nextMessage != null;
+            }
+
+            @Override
+            public Message next() {
+                if(nextMessage == null) {
+                    throw new NoSuchElementException();
+                }
+                lastReturned = nextMessage;
+                nextMessage = nextMessage.getNext();
+                return lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if(lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+                delete(lastReturned);
+                lastReturned = null;
+            }
+        };
+    }
+
+    /**
+     * Iterator used by the index queries. It follows one of the message links and stops
+     * before the first message below the minimum sequence number.
+     */
+    private class IndexIterator implements Iterator<Message> {
+        private static final int INBOX = 0;
+        private static final int SENDER = 1;
+        private static final int SECRECY = 2;
+
+        private final int link;
+        private final long minSequence;
+        private Message nextMessage;
+        private Message lastReturned;
+
+        private IndexIterator(Message start, int link, long minSequence) {
+            this.nextMessage = start;
+            this.link = link;
+            this.minSequence = minSequence;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextMessage != null;
+        }
+
+        @Override
+        public Message next() {
+            if(nextMessage == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = nextMessage;
+            if(link == SENDER) {
+                nextMessage = nextMessage.getNextFromSender();
+            } else if(link == SECRECY) {
+                nextMessage = nextMessage.getNextWithSecrecy();
+            } else {
+                nextMessage = nextMessage.getNext();
+            }
+            if(nextMessage != null && nextMessage.getSequence() < minSequence) {
+                nextMessage = null;
+            }
+            return lastReturned;
+        }
+
+        @Override
+        public void remove() {
+            if(lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            delete(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    /**
+     * Returns a sequential stream over the messages in the inbox (recent to oldest).
+     *
+     * @return a stream of the messages.
+     */
+    public Stream<Message> stream() {
+        Spliterator<Message> spliterator = Spliterators.spliterator(iterator(), size(),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
     }
 
     /**
@@ -98,4 +592,55 @@ public class Inbox {
     public Message getRecent() {
         return recent;
     }
+
+    /**
+     * Copies the messages in the inbox into an array (recent to oldest).
+     * The messages stay in the inbox.
+     *
+     * @return an array with every message in the inbox.
+     */
+    public Message[] toArray() {
+        Message[] messages = new Message[size()];
+        Message current = getRecent();
+        for(int i = 0; i < messages.length; i++) {
+            messages[i] = current;
+            current = current.getNext();
+        }
+        return messages;
+    }
+
+    /**
+     * Accessor for the oldest message.
+     */
+    public Message getOldest() {
+        return oldest;
+    }
+
+    /**
+     * Accessor and setter for the payload store. With a store, the encrypted content of received messages
+     * is replaced by the store's shared copy, so identical payloads in many messages and inboxes are kept once.
+     * Messages already in the inbox when the store is set are not shared.
+     */
+    public PayloadStore getPayloadStore() {
+        return payloads;
+    }
+
+    public void setPayloadStore(PayloadStore payloads) {
+        this.payloads = payloads;
+    }
+
+    /**
+     * Accessor for the number of messages in the inbox.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Accessor for the number of messages in the inbox that is safe to call from any thread,
+     * for example to report inbox depth. The value may be slightly out of date.
+     */
+    public int approximateSize() {
+        return size;
+    }
 }
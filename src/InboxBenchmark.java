@@ -0,0 +1,44 @@
+/**
+ * Benchmark to check that draining an inbox takes linear time in the number of messages.
+ * Each round doubles the inbox depth, so the time per message should stay roughly the same.
+ *
+ * Author: Fatima Navid
+ */
+public class InboxBenchmark {
+    public static void main(String[] args) {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+
+        //Warm up rounds so that the timed rounds are not measuring the JIT compiler.
+        for(int i = 0; i < 5; i++) {
+            drain(a1, a2, 100000);
+        }
+
+        for(int depth = 10000; depth <= 640000; depth *= 2) {
+            long nanos = drain(a1, a2, depth);
+            System.out.println("depth " + depth + ": " + (nanos / 1000000) + " ms total, "
+                    + (nanos / depth) + " ns per message");
+        }
+    }
+
+    /**
+     * Fills an inbox with the given number of messages and then reads all of them.
+     *
+     * @param from, the sender of the messages.
+     * @param to, the receiver of the messages.
+     * @param depth, number of messages to put in the inbox.
+     * @return the time taken to read every message, in nanoseconds.
+     */
+    private static long drain(Agent from, Agent to, int depth) {
+        Inbox inbox = new Inbox();
+        for(int i = 0; i < depth; i++) {
+            inbox.receive(new Message(from, to, "ping"));
+        }
+
+        long start = System.nanoTime();
+        while(inbox.size() > 0) {
+            inbox.read();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory budget shared by bounded inboxes, so the total size of their messages stays under a limit.
+ * Inboxes reserve bytes when they take a message and release them when it is removed.
+ * A budget is safe to share between inboxes used from different threads.
+ *
+ * Author: Fatima Navid
+ */
+public class InboxMemoryBudget {
+    /**
+     * Budget shared by every bounded inbox that isn't given its own. Unlimited until setLimit is called.
+     */
+    public static final InboxMemoryBudget SHARED = new InboxMemoryBudget(Long.MAX_VALUE);
+
+    private volatile long limit;
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * Constructor for a budget with a limit.
+     *
+     * @param limit, the maximum number of bytes inboxes may hold in total.
+     */
+    public InboxMemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Reserves bytes from the budget if there is room for them.
+     *
+     * @param bytes, the number of bytes to reserve.
+     * @return true if the bytes were reserved, false if they would take the budget over its limit.
+     */
+    public boolean tryReserve(long bytes) {
+        long current;
+        do {
+            current = used.get();
+            if(current + bytes > limit) {
+                return false;
+            }
+        } while(!used.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Gives reserved bytes back to the budget.
+     *
+     * @param bytes, the number of bytes to release.
+     */
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    /**
+     * Accessor for the number of bytes reserved.
+     */
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * Accessor and setter for the limit. Lowering the limit doesn't evict anything, it only stops new reservations.
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+}
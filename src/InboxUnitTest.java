@@ -0,0 +1,420 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Unit test class for the inbox classes.
+ *
+ * Author: Fatima Navid
+ */
+public class InboxUnitTest {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        testReadOrder();
+        System.out.println(" ");
+
+        testConcurrentReceive();
+        System.out.println(" ");
+
+        testDeleteAndSize();
+        System.out.println(" ");
+
+        testIterationAndExport();
+        System.out.println(" ");
+
+        testPersistentInbox();
+        System.out.println(" ");
+
+        testBoundedInbox();
+        System.out.println(" ");
+
+        testIndexedQueries();
+        System.out.println(" ");
+
+        testOffHeapInbox();
+        System.out.println(" ");
+
+        testSharedPayloads();
+    }
+
+    /**
+     * Tests that messages are read from the inbox from recent to oldest.
+     */
+    public static void testReadOrder() {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+        Inbox inbox = new Inbox();
+        inbox.receive(new Message(a1, a2, "first"));
+        inbox.receive(new Message(a1, a2, "second"));
+
+        System.out.println("Expected output: second, first");
+        System.out.println("Actual output: " + inbox.read().getContent() + ", " + inbox.read().getContent());
+    }
+
+    /**
+     * Tests that no messages are lost when many threads deliver to the same concurrent inbox.
+     */
+    public static void testConcurrentReceive() throws InterruptedException {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+        ConcurrentInbox inbox = new ConcurrentInbox();
+
+        Thread[] senders = new Thread[8];
+        for(int i = 0; i < senders.length; i++) {
+            senders[i] = new Thread(() -> {
+                for(int j = 0; j < 10000; j++) {
+                    inbox.receive(new Message(a1, a2, "ping"));
+                }
+            });
+            senders[i].start();
+        }
+        for(Thread sender : senders) {
+            sender.join();
+        }
+
+        int count = 0;
+        while(inbox.getRecent() != null) {
+            inbox.read();
+            count++;
+        }
+
+        System.out.println("Expected output: 80000");
+        System.out.println("Actual output: " + count);
+    }
+
+    /**
+     * Tests that deleting a message from the middle of the inbox unlinks it and updates the size.
+     */
+    public static void testDeleteAndSize() {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+        Inbox inbox = new Inbox();
+        Message first = new Message(a1, a2, "first");
+        Message second = new Message(a1, a2, "second");
+        Message third = new Message(a1, a2, "third");
+        inbox.receive(first);
+        inbox.receive(second);
+        inbox.receive(third);
+        inbox.delete(second);
+
+        System.out.println("Expected output: 2, third, first, first");
+        System.out.println("Actual output: " + inbox.size() + ", " + inbox.getRecent().getContent()
+                + ", " + inbox.getRecent().getNext().getContent() + ", " + inbox.getOldest().getContent());
+
+        //A message in another inbox is not deleted, and neither inbox changes.
+        Inbox other = new Inbox();
+        other.receive(new Message(a1, a2, "other one"));
+        other.receive(new Message(a1, a2, "other two"));
+        Message otherFirst = other.getOldest();
+        System.out.println("Expected output: Message not in inbox.");
+        System.out.print("Actual output: ");
+        boolean deleted = inbox.delete(otherFirst);
+        System.out.println("Expected output: false, 2, 2");
+        System.out.println("Actual output: " + deleted + ", " + inbox.size() + ", " + other.size());
+    }
+
+    /**
+     * Tests the stream view of the inbox and exporting it to a writer and a channel.
+     */
+    public static void testIterationAndExport() throws IOException {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+        Inbox inbox = new Inbox();
+
+        System.out.println("Expected output: <no more messages>");
+        System.out.print("Actual output: ");
+        inbox.printAll();
+
+        inbox.receive(new Message(a1, a2, "first"));
+        inbox.receive(new Message(a1, a2, "second"));
+        inbox.receive(new Message(a1, a2, "third"));
+
+        System.out.println("Expected output: 3");
+        System.out.println("Actual output: " + inbox.stream().filter(m -> m.getFrom() == a1).count());
+
+        StringWriter writer = new StringWriter();
+        inbox.exportTo(writer);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        inbox.exportTo(Channels.newChannel(bytes));
+        System.out.println("Expected output: third|second|first|, true");
+        System.out.println("Actual output: " + writer.toString().replace('\n', '|') + ", "
+                + writer.toString().equals(bytes.toString(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Tests that a persistent inbox recovers unread messages from its log after being reopened.
+     */
+    public static void testPersistentInbox() throws IOException {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+        Path directory = Files.createTempDirectory("inbox");
+
+        //Small segments so the messages are spread over several segment files.
+        try (MessageLog log = new MessageLog(directory, 128)) {
+            john.setInbox(new PersistentInbox(log, john, uid -> null));
+            for(int i = 1; i <= 5; i++) {
+                jane.send(john, new Message(jane, john, "message " + i), 1);
+            }
+            john.getInbox().read();
+        }
+
+        try (MessageLog log = new MessageLog(directory, 128)) {
+            john.setInbox(new PersistentInbox(log, john, uid -> uid.equals(jane.getUID()) ? jane : null));
+            john.decryptAll(new int[] {1, 1, 1, 1});
+            System.out.println("Expected output: 4, message 4, message 1");
+            System.out.println("Actual output: " + john.getInbox().size() + ", " + john.getInbox().getRecent().getContent()
+                    + ", " + john.getInbox().getOldest().getContent());
+        }
+
+        //Messages sent with a session key keep their key ID through a restart and a spill to disk.
+        KeyManager keys = new KeyManager(new byte[32]);
+        Path keyed = Files.createTempDirectory("keyed");
+        try (MessageLog log = new MessageLog(keyed)) {
+            john.setInbox(new PersistentInbox(log, john, uid -> null));
+            jane.send(john, new Message(jane, john, "session"), keys);
+        }
+        try (MessageLog log = new MessageLog(keyed)) {
+            john.setInbox(new PersistentInbox(log, john, uid -> uid.equals(jane.getUID()) ? jane : null));
+            john.decryptAll(keys);
+            Message restarted = john.getInbox().getRecent();
+
+            john.setInbox(new BoundedInbox(1, Long.MAX_VALUE, OverflowPolicy.SPILL_TO_DISK,
+                    new InboxMemoryBudget(Long.MAX_VALUE), log));
+            jane.send(john, new Message(jane, john, "spilled"), keys);
+            jane.send(john, new Message(jane, john, "in memory"), keys);
+            john.getInbox().read();
+            Message spilled = john.getInbox().read();
+            spilled.decrypt(keys.cipher(jane.getAgentID(), john.getAgentID(), spilled.getKeyID()));
+            System.out.println("Expected output: session 0, spilled 0");
+            System.out.println("Actual output: " + restarted.getContent() + " " + restarted.getKeyID() + ", "
+                    + spilled.getContent() + " " + spilled.getKeyID());
+        }
+    }
+
+    /**
+     * Tests the overflow policies of bounded inboxes and the shared memory budget.
+     */
+    public static void testBoundedInbox() throws IOException {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+
+        john.setInbox(new BoundedInbox(2, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        jane.send(john, new Message(jane, john, "one"), 1);
+        jane.send(john, new Message(jane, john, "two"), 1);
+        System.out.println("Expected output: INBOX_FULL");
+        System.out.println("Actual output: " + jane.send(john, new Message(jane, john, "three"), 1));
+
+        Inbox dropping = new BoundedInbox(2, Long.MAX_VALUE, OverflowPolicy.DROP_OLDEST);
+        for(String content : new String[] {"one", "two", "three"}) {
+            dropping.receive(new Message(jane, john, content));
+        }
+        System.out.println("Expected output: 2, three, two");
+        System.out.println("Actual output: " + dropping.size() + ", " + dropping.read().getContent() + ", "
+                + dropping.read().getContent());
+
+        //A message that could never fit is rejected without dropping anything.
+        Inbox small = new BoundedInbox(10, 500, OverflowPolicy.DROP_OLDEST);
+        for(String content : new String[] {"one", "two", "three"}) {
+            small.receive(new Message(jane, john, content));
+        }
+        boolean tooLarge = small.receive(new Message(jane, john, "x".repeat(500)));
+        System.out.println("Expected output: false, 3");
+        System.out.println("Actual output: " + tooLarge + ", " + small.size());
+
+        //The budget only has room for two messages, shared between both inboxes.
+        Message sized = new Message(jane, john, "four");
+        InboxMemoryBudget budget = new InboxMemoryBudget(2L * sized.sizeInBytes());
+        Inbox first = new BoundedInbox(10, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW, budget, null);
+        Inbox second = new BoundedInbox(10, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW, budget, null);
+        boolean accepted = first.receive(sized) & second.receive(new Message(jane, john, "five"));
+        boolean rejected = !second.receive(new Message(jane, john, "six!"));
+        first.read();
+        System.out.println("Expected output: true, true, " + sized.sizeInBytes());
+        System.out.println("Actual output: " + accepted + ", " + rejected + ", " + budget.getUsed());
+
+        //Messages are only dropped when that makes room in a budget the other inbox holds most of.
+        InboxMemoryBudget tight = new InboxMemoryBudget(3L * sized.sizeInBytes());
+        Inbox holding = new BoundedInbox(10, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW, tight, null);
+        Inbox evicting = new BoundedInbox(10, Long.MAX_VALUE, OverflowPolicy.DROP_OLDEST, tight, null);
+        holding.receive(new Message(jane, john, "aaaa"));
+        holding.receive(new Message(jane, john, "bbbb"));
+        evicting.receive(new Message(jane, john, "cccc"));
+        tight.setLimit(2L * sized.sizeInBytes());
+        boolean noRoom = evicting.receive(new Message(jane, john, "dddd"));
+        int keptSize = evicting.size();
+        tight.setLimit(3L * sized.sizeInBytes());
+        boolean madeRoom = evicting.receive(new Message(jane, john, "eeee"));
+        System.out.println("Expected output: false, 1, true, 1, eeee");
+        System.out.println("Actual output: " + noRoom + ", " + keptSize + ", " + madeRoom + ", " + evicting.size()
+                + ", " + evicting.getRecent().getContent());
+
+        Path directory = Files.createTempDirectory("spill");
+        try (MessageLog log = new MessageLog(directory)) {
+            BoundedInbox spilling = new BoundedInbox(1, Long.MAX_VALUE, OverflowPolicy.SPILL_TO_DISK,
+                    new InboxMemoryBudget(Long.MAX_VALUE), log);
+            for(String content : new String[] {"one", "two", "three"}) {
+                spilling.receive(new Message(jane, john, content));
+            }
+            System.out.println("Expected output: 1, 2, three, two, one");
+            System.out.println("Actual output: " + spilling.size() + ", " + spilling.getSpilledCount() + ", "
+                    + spilling.read().getContent() + ", " + spilling.read().getContent() + ", "
+                    + spilling.read().getContent());
+        }
+    }
+
+    /**
+     * Tests finding messages by sender, secrecy level, sequence number and receive time.
+     */
+    public static void testIndexedQueries() {
+        Agent jane = new Agent("Jane", "Alpha");
+        Agent john = new Agent("John", "Beta");
+        Agent mary = new Agent("Mary", "Gamma");
+        Inbox inbox = new Inbox();
+        inbox.receive(new Message(jane, mary, "a", Clearance.LEVEL_3));
+        inbox.receive(new Message(john, mary, "b", Clearance.LEVEL_2));
+        inbox.receive(new Message(jane, mary, "c"));
+        inbox.receive(new Message(john, mary, "d", Clearance.LEVEL_3));
+        inbox.receive(new Message(jane, mary, "e", Clearance.LEVEL_3));
+
+        //Deleting through one index removes the message from the others.
+        Iterator<Message> fromJohn = inbox.fromSender(john.getAgentID());
+        fromJohn.next();
+        fromJohn.remove();
+
+        long start = inbox.getOldest().getSequence();
+        System.out.println("Expected output: eca, ea, c, cb, ec, ecba");
+        System.out.println("Actual output: " + contents(inbox.fromSender(jane.getAgentID())) + ", "
+                + contents(inbox.withSecrecy(Clearance.LEVEL_3)) + ", " + contents(inbox.withSecrecy(null)) + ", "
+                + contents(inbox.sequenceBetween(start + 1, start + 3)) + ", "
+                + contents(inbox.sequenceBetween(start + 2, Long.MAX_VALUE)) + ", "
+                + contents(inbox.receivedBetween(0, Long.MAX_VALUE)));
+
+        //Deleting from the middle leaves stale entries in the sequence index, which the range queries skip.
+        Message c = inbox.getRecent().getNext();
+        inbox.delete(c);
+        inbox.delete(inbox.getOldest());
+        String afterDeletes = contents(inbox.sequenceBetween(start, start + 5));
+        inbox.receive(c);
+        System.out.println("Expected output: eb, ce, ceb");
+        System.out.println("Actual output: " + afterDeletes + ", " + contents(inbox.sequenceBetween(start + 2, Long.MAX_VALUE))
+                + ", " + contents(inbox.receivedBetween(0, Long.MAX_VALUE)));
+    }
+
+    /**
+     * Helper method to join the contents of the messages an iterator returns.
+     */
+    private static String contents(Iterator<Message> messages) {
+        StringBuilder contents = new StringBuilder();
+        while(messages.hasNext()) {
+            contents.append(messages.next().getContent());
+        }
+        return contents.toString();
+    }
+
+    /**
+     * Tests that an off-heap inbox returns its messages in order and frees their records.
+     */
+    public static void testOffHeapInbox() {
+        AgentRegistry registry = new AgentRegistry();
+        SecretAgent jane = registry.createSecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = registry.createSecretAgent("John", "Beta", Clearance.LEVEL_2);
+        MessageArena arena = new MessageArena(4096);
+        OffHeapInbox inbox = new OffHeapInbox(arena, registry::findByID);
+        john.setInbox(inbox);
+
+        jane.send(john, new Message(jane, john, "first"), 1);
+        inbox.receive(new Message(john, jane, "second", Clearance.LEVEL_1B));
+        jane.send(john, new Message(jane, john, "third", Clearance.LEVEL_2), 1);
+        Iterator<Message> fromJohn = inbox.fromSender(john.getAgentID());
+        fromJohn.next();
+        fromJohn.remove();
+
+        Message third = inbox.read();
+        third.decrypt(1);
+        Message first = inbox.getRecent();
+        inbox.delete(first);
+        first.decrypt(1);
+        System.out.println("Expected output: third, LEVEL_2, first, 0, 0");
+        System.out.println("Actual output: " + third.getContent() + ", " + third.getSecrecy() + ", "
+                + first.getContent() + ", " + inbox.size() + ", " + arena.getUsedBytes());
+
+        //Messages from another inbox in the same arena, or already deleted, are not deleted.
+        OffHeapInbox one = new OffHeapInbox(arena, registry::findByID);
+        OffHeapInbox two = new OffHeapInbox(arena, registry::findByID);
+        one.receive(new Message(jane, john, "one"));
+        two.receive(new Message(jane, john, "two"));
+        Message fromTwo = two.getRecent();
+        System.out.println("Expected output: Message not in inbox.");
+        System.out.print("Actual output: ");
+        boolean foreign = one.delete(fromTwo);
+        boolean own = two.delete(fromTwo);
+        System.out.println("Expected output: Message not in inbox.");
+        System.out.print("Actual output: ");
+        boolean again = two.delete(fromTwo);
+        System.out.println("Expected output: false, true, false, 1, 0");
+        System.out.println("Actual output: " + foreign + ", " + own + ", " + again + ", " + one.size() + ", " + two.size());
+
+        //A message that can't be copied out is kept, not lost.
+        OffHeapInbox unknown = new OffHeapInbox(arena, id -> null);
+        unknown.receive(new Message(jane, john, "kept"));
+        System.out.println("Expected output: Unknown agent: " + jane.getAgentID());
+        System.out.print("Actual output: ");
+        Message unread = unknown.read();
+        System.out.println("Expected output: null, 1");
+        System.out.println("Actual output: " + unread + ", " + unknown.size());
+
+        //Decrypting copies would change nothing, so decryptAll refuses an off-heap inbox.
+        john.setInbox(one);
+        System.out.println("Expected output: Messages in an off-heap inbox must be read before they are decrypted.");
+        System.out.print("Actual output: ");
+        john.decryptAll(new int[] {1});
+
+        //A record whose rounded up slot is larger than a chunk is rejected, even if the record itself fits.
+        MessageArena uneven = new MessageArena(3000);
+        System.out.println("Expected output: Message too large for arena.");
+        System.out.print("Actual output: ");
+        long tooLarge = uneven.allocate(2500);
+        long fits = uneven.allocate(2000);
+        System.out.println("Expected output: -1, 0, 3000");
+        System.out.println("Actual output: " + tooLarge + ", " + fits + ", " + uneven.getReservedBytes());
+    }
+
+    /**
+     * Tests that identical messages in inboxes with a payload store share one payload, and that the cache
+     * encrypts repeated content once.
+     */
+    public static void testSharedPayloads() {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+        SecretAgent mary = new SecretAgent("Mary", "Gamma", Clearance.LEVEL_2);
+        PayloadStore store = new PayloadStore();
+        john.getInbox().setPayloadStore(store);
+        mary.getInbox().setPayloadStore(store);
+        EncryptionCache cache = new EncryptionCache();
+
+        for(int i = 0; i < 3; i++) {
+            jane.send(john, new Message(jane, john, "Status: all clear"), cache.wrap(new CaesarCipher(5)));
+        }
+        jane.send(mary, new Message(jane, mary, "Status: all clear"), cache.wrap(new CaesarCipher(5)));
+        jane.send(mary, new Message(jane, mary, "Status: all clear"), cache.wrap(new CaesarCipher(6)));
+
+        Message first = john.getInbox().getRecent();
+        Message second = john.getInbox().getOldest();
+        String payload = first.getContent();
+        System.out.println("Expected output: 2, 4, 3, 2, true");
+        System.out.println("Actual output: " + store.size() + ", " + store.getReferences(payload) + ", "
+                + cache.getHits() + ", " + cache.getMisses() + ", " + (first.getContent() == second.getContent()));
+
+        john.getInbox().read();
+        john.getInbox().read();
+        second.decrypt(new CaesarCipher(5));
+        cache.clear();
+        System.out.println("Expected output: 2, Status: all clear, 0");
+        System.out.println("Actual output: " + store.getReferences(payload) + ", " + second.getContent() + ", "
+                + cache.size());
+    }
+}
@@ -0,0 +1,229 @@
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Manages the session keys used between pairs of agents, so callers don't have to pass keys around.
+ *
+ * Every sender and receiver pair has a current key ID, which starts at 0 and goes up each time the pair's
+ * key is rotated. The key for a pair and key ID is derived from a master key with HMAC-SHA256, so it can
+ * always be derived again to decrypt older messages. Messages are tagged with the ID of the key they were
+ * encrypted with, and the receiver finds the key from the sender, itself and the key ID.
+ *
+ * Derived keys are kept in a least recently used cache of AES-GCM ciphers. Every message gets a random
+ * 96 bit nonce (see AeadCipher), so a key that is evicted and derived again can safely keep encrypting.
+ * A pair's key is only rotated by rotate, or once it has encrypted the maximum number of messages,
+ * which keeps each key well below the number of random nonces GCM can safely use with it.
+ *
+ * The current key ID and message count of each pair are kept in a second least recently used map of at most
+ * maxPairs pairs. A pair that hasn't sent for long enough to be dropped starts again on key ID 0 with a new count.
+ * Its key ID 0 messages are still decryptable, and random nonces make reusing the key safe.
+ *
+ * Author: Fatima Navid
+ */
+public class KeyManager {
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+    public static final long DEFAULT_MAX_MESSAGES_PER_KEY = 1L << 24;
+    public static final int DEFAULT_MAX_PAIRS = 1 << 20;
+    private static final int SESSION_KEY_LENGTH = 16;
+
+    private final Mac mac;
+    private final long maxMessagesPerKey;
+
+    /**
+     * Current key and message count of the pairs that have sent most recently (pairs not here are on key ID 0).
+     */
+    private final LinkedHashMap<Long, PairState> pairs;
+    private final LinkedHashMap<SessionID, MessageCipher> cache;
+
+    /**
+     * Constructor for a key manager with the default cache size and rotation limit.
+     *
+     * @param masterKey, the secret the session keys are derived from (at least 16 bytes).
+     */
+    public KeyManager(byte[] masterKey) {
+        this(masterKey, DEFAULT_CACHE_SIZE, DEFAULT_MAX_MESSAGES_PER_KEY);
+    }
+
+    /**
+     * Constructor for a key manager.
+     *
+     * @param masterKey, the secret the session keys are derived from (at least 16 bytes).
+     * @param cacheSize, the number of session keys kept.
+     * @param maxMessagesPerKey, the number of messages a key encrypts before the pair's key is rotated.
+     */
+    public KeyManager(byte[] masterKey, int cacheSize, long maxMessagesPerKey) {
+        this(masterKey, cacheSize, maxMessagesPerKey, DEFAULT_MAX_PAIRS);
+    }
+
+    /**
+     * Constructor for a key manager with a limit on the number of pairs whose key state is kept.
+     *
+     * @param masterKey, the secret the session keys are derived from (at least 16 bytes).
+     * @param cacheSize, the number of session keys kept.
+     * @param maxMessagesPerKey, the number of messages a key encrypts before the pair's key is rotated.
+     * @param maxPairs, the number of pairs whose current key ID and message count are kept.
+     */
+    public KeyManager(byte[] masterKey, int cacheSize, long maxMessagesPerKey, int maxPairs) {
+        this.maxMessagesPerKey = maxMessagesPerKey;
+        try {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+        } catch(GeneralSecurityException e) {
+            //The JDK always provides HmacSHA256, so only a bad master key gets here.
+            throw new IllegalArgumentException("Invalid master key.", e);
+        }
+
+        //Access order, so the eldest entry is the least recently used one.
+        cache = new LinkedHashMap<SessionID, MessageCipher>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SessionID, MessageCipher> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        pairs = new LinkedHashMap<Long, PairState>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, PairState> eldest) {
+                return size() > maxPairs;
+            }
+        };
+    }
+
+    /**
+     * Finds the cipher for a sender to encrypt a message to a receiver with,
+     * and tags the message with the ID of the key.
+     *
+     * @param senderID, agent ID of the sender.
+     * @param receiverID, agent ID of the receiver.
+     * @param msg, the message that will be encrypted.
+     * @return the cipher for the pair's current key.
+     */
+    public synchronized MessageCipher sendingCipher(int senderID, int receiverID, Message msg) {
+        PairState state = pairs.computeIfAbsent(pair(senderID, receiverID), pair -> new PairState());
+        if(++state.encrypted > maxMessagesPerKey) {
+            state.keyID++;
+            state.encrypted = 1;
+        }
+        msg.setKeyID(state.keyID);
+        return session(senderID, receiverID, state.keyID);
+    }
+
+    /**
+     * Finds the cipher to decrypt a message from a sender to a receiver.
+     *
+     * @param senderID, agent ID of the sender.
+     * @param receiverID, agent ID of the receiver.
+     * @param keyID, the key ID the message is tagged with.
+     * @return the cipher for the key.
+     */
+    public synchronized MessageCipher cipher(int senderID, int receiverID, int keyID) {
+        return session(senderID, receiverID, keyID);
+    }
+
+    /**
+     * Moves a pair on to a new key. Messages already sent can still be decrypted with their key ID.
+     *
+     * @param senderID, agent ID of the sender.
+     * @param receiverID, agent ID of the receiver.
+     * @return the new key ID of the pair.
+     */
+    public synchronized int rotate(int senderID, int receiverID) {
+        PairState state = pairs.computeIfAbsent(pair(senderID, receiverID), pair -> new PairState());
+        state.keyID++;
+        state.encrypted = 0;
+        return state.keyID;
+    }
+
+    /**
+     * Accessor for the current key ID of a pair.
+     */
+    public synchronized int getCurrentKeyID(int senderID, int receiverID) {
+        PairState state = pairs.get(pair(senderID, receiverID));
+        return state == null ? 0 : state.keyID;
+    }
+
+    /**
+     * Accessors for the number of session keys in the cache and the number of pairs whose key state is kept.
+     */
+    public synchronized int getCacheSize() {
+        return cache.size();
+    }
+
+    public synchronized int getPairCount() {
+        return pairs.size();
+    }
+
+    /**
+     * Helper method to find a session's cipher in the cache, deriving its key if it isn't there.
+     */
+    private MessageCipher session(int senderID, int receiverID, int keyID) {
+        SessionID id = new SessionID(senderID, receiverID, keyID);
+        MessageCipher cipher = cache.get(id);
+        if(cipher == null) {
+            cipher = new AesGcmCipher(deriveKey(id));
+            cache.put(id, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Derives the key for a session: HMAC-SHA256 of the sender, receiver and key ID, cut to an AES-128 key.
+     *
+     * @param id, the session.
+     * @return the key bytes.
+     */
+    private byte[] deriveKey(SessionID id) {
+        byte[] input = ByteBuffer.allocate(3 * Integer.BYTES).putInt(id.senderID).putInt(id.receiverID)
+                .putInt(id.keyID).array();
+        return Arrays.copyOf(mac.doFinal(input), SESSION_KEY_LENGTH);
+    }
+
+    private static long pair(int senderID, int receiverID) {
+        return ((long) senderID << 32) | (receiverID & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Cache key: a sender and receiver pair and a key ID.
+     */
+    private static class SessionID {
+        private final int senderID;
+        private final int receiverID;
+        private final int keyID;
+
+        private SessionID(int senderID, int receiverID, int keyID) {
+            this.senderID = senderID;
+            this.receiverID = receiverID;
+            this.keyID = keyID;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof SessionID)) {
+                return false;
+            }
+            SessionID id = (SessionID) other;
+            return senderID == id.senderID && receiverID == id.receiverID && keyID == id.keyID;
+        }
+
+        @Override
+        public int hashCode() {
+            return (senderID * 31 + receiverID) * 31 + keyID;
+        }
+    }
+
+    /**
+     * A pair's current key ID and the number of messages encrypted with it.
+     */
+    private static class PairState {
+        private int keyID;
+        private long encrypted;
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of operation times in nanoseconds, safe to update from many threads.
+ * Times are counted in power of two buckets, so percentiles are accurate to within a factor of two.
+ *
+ * Author: Fatima Navid
+ */
+public class LatencyHistogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * Records one operation.
+     *
+     * @param nanos, the time the operation took.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 1);
+        //Bucket n holds times from 2^n up to 2^(n+1) - 1.
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        total.add(value);
+    }
+
+    /**
+     * Accessor for the number of operations recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Accessor for the mean time, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long operations = count.sum();
+        return operations == 0 ? 0 : total.sum() / (double) operations;
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls in.
+     *
+     * @param percentile, the percentile from 0 to 100.
+     * @return the estimated time in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long operations = count.sum();
+        if(operations == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(operations * percentile / 100);
+        long seen = 0;
+        for(int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if(seen >= Math.max(target, 1)) {
+                return i == 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Shard transport for shards in the same JVM, used in tests and when running every shard in one process.
+ * Batches are handed straight to the receiving shard on the sender's thread, without copying.
+ * One transport is shared by the routers of every shard.
+ *
+ * Author: Fatima Navid
+ */
+public class LoopbackTransport implements ShardTransport {
+    private final Map<Integer, Consumer<ByteBuffer>> receivers = new ConcurrentHashMap<>();
+
+    @Override
+    public void bind(int shard, Consumer<ByteBuffer> receiver) throws IOException {
+        if(receivers.putIfAbsent(shard, receiver) != null) {
+            throw new IOException("Shard " + shard + " is already bound.");
+        }
+    }
+
+    @Override
+    public void send(int shard, ByteBuffer batch) throws IOException {
+        Consumer<ByteBuffer> receiver = receivers.get(shard);
+        if(receiver == null) {
+            throw new IOException("No node for shard " + shard + ".");
+        }
+        //Read-only so the receiver can't change the sender's buffer.
+        receiver.accept(batch.asReadOnlyBuffer());
+    }
+
+    @Override
+    public void close() {
+        receivers.clear();
+    }
+}
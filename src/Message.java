@@ -9,13 +9,79 @@ public class Message{
     private Agent from;
     private Agent to;
     private Message next;
+    private Message previous;
 
-    private int[] encoded;
-    private int[] encrypted;
-    private int[] decrypted;
+    /**
+     * Links to the next and previous message in the inbox from the same sender and with the same secrecy,
+     * the inbox holding the message, and the sequence number and time the inbox received the message.
+     * These are set by the inbox.
+     */
+    private Inbox inbox;
+    private long storeOffset;
+    private Message nextFromSender;
+    private Message previousFromSender;
+    private Message nextWithSecrecy;
+    private Message previousWithSecrecy;
+    private long sequence;
+    private long receivedAt;
+
+    /**
+     * Flags for the state of the message.
+     */
+    private static final byte ENCODED = 1;
+    private static final byte DECRYPTED = 2;
+
+    /**
+     * Estimated bytes used by a message object and its content string, not counting the characters.
+     */
+    private static final int MESSAGE_OVERHEAD = 96;
+
+    /**
+     * Key ID of a message that wasn't encrypted with a managed session key.
+     */
+    public static final int NO_KEY_ID = -1;
+
+    /**
+     * The message keeps its current content, the encrypted text and the cipher it was encrypted with.
+     * While the message is encrypted, the content and the encrypted text are the same string.
+     * The encoded and decrypted views are worked out from these when they are asked for, so they are
+     * only stored here when they can't be worked out any more (for example after encrypting twice).
+     * Views are stored as text whose character codes are the values, and formatted only when asked for.
+     */
+    private String encrypted;
+    private MessageCipher cipher;
+    private String encoded;
+    private String decrypted;
+    private byte state;
 
     private Clearance secrecy;
 
+    /**
+     * Optional large payload that is streamed to a store file instead of being held in the content.
+     * The body is not written to message logs or encoded frames, only the content is.
+     */
+    private MessageBody body;
+
+    /**
+     * Name of the channel the message was published on, or null if it was sent to one receiver.
+     */
+    private String channel;
+
+    /**
+     * ID of the session key the message was encrypted with (see KeyManager), or NO_KEY_ID.
+     */
+    private int keyID = NO_KEY_ID;
+
+    /**
+     * True if the content was compressed before it was encrypted, so decrypting also decompresses it.
+     */
+    private boolean compressed;
+
+    /**
+     * Copy of the encrypted text shared through an inbox's payload store, or null if it isn't shared.
+     */
+    private String sharedPayload;
+
     /**
      * Constructor to create a message with specified sender, receiver and content.
      *
@@ -44,20 +110,36 @@ public class Message{
         this.secrecy = secrecy;
     }
 
+    /**
+     * Creates a copy of this message for another receiver.
+     * The content and the encoded, encrypted and decrypted views are shared with this message, not copied.
+     *
+     * @param to, the receiver of the copy.
+     * @return a new message with the same sender, content and clearance level.
+     */
+    public Message copyFor(Agent to) {
+        Message copy = new Message(from, to, content, secrecy);
+        copy.encrypted = encrypted;
+        copy.cipher = cipher;
+        copy.encoded = encoded;
+        copy.decrypted = decrypted;
+        copy.state = state;
+        copy.body = body;
+        copy.channel = channel;
+        copy.keyID = keyID;
+        copy.compressed = compressed;
+        return copy;
+    }
+
     /**
      * Encodes the message by converting the contents into their ASCII equivalent.
-     * Stores the numbers in an encoded array.
+     * The ASCII values are the character codes of the content, so before encryption only a flag is set
+     * and the numbers are worked out when getEncoded is called.
      */
     public void encode() {
-        if(!content.isEmpty()) {
-            encoded = new int[content.length()];
-            // Loop to convert each character to its ASCII equivalent.
-            for(int i = 0; i< content.length(); i++) {
-                encoded[i] = content.charAt(i);
-            }
-        } else {
-            encoded = new int[0];   //Array is empty if the content is empty.
-        }
+        //Once encrypted, the current content can't be worked out from the encrypted text, so it is kept.
+        encoded = encrypted == null ? null : content;
+        state |= ENCODED;
     }
 
     /**
@@ -66,26 +148,70 @@ public class Message{
      * Encodes the message if it hasn't been encoded.
      *
      * @param key, an int added to each character of the encoded text.
+     * @return true if the message was encrypted.
+     */
+    public boolean encrypt(int key) {
+        return encrypt(new CaesarCipher(key));
+    }
+
+    /**
+     * Method to encrypt the contents of the message with the cipher provided.
+     * Updates the content of the message with encrypted string.
+     * Encodes the message if it hasn't been encoded.
+     * If the message has a body that isn't encrypted yet, it is streamed through the same cipher first.
+     * If the cipher fails, the content is left unchanged.
+     *
+     * @param cipher, the cipher used to encrypt the message.
+     * @return true if the message was encrypted, false if the cipher failed.
      */
-    public void encrypt(int key) {
+    public boolean encrypt(MessageCipher cipher) {
+        return encrypt(cipher, null);
+    }
+
+    /**
+     * Method to compress the contents of the message and encrypt them with the cipher provided.
+     * The content is only compressed if it isn't encrypted yet and the compressor finds it worth compressing,
+     * otherwise this is the same as encrypt(cipher). Decrypting the message decompresses it again.
+     *
+     * @param cipher, the cipher used to encrypt the message.
+     * @param compressor, the compressor to use, or null to not compress.
+     * @return true if the message was encrypted, false if the cipher failed.
+     */
+    public boolean encrypt(MessageCipher cipher, MessageCompressor compressor) {
+        if (body != null && !body.isEncrypted() && !body.encrypt(cipher)) {
+            return false;
+        }
+
         if (!content.isEmpty()) {
-            encrypted = new int[content.length()];
-             //Loop through each character and add the key value.
-            for(int i = 0; i < content.length(); i++) {
-                encrypted[i] = getContent().charAt(i) + key;
+            String packed = compressor == null || encrypted != null ? null : compressor.compress(content);
+            String result = cipher.encrypt(packed == null ? content : packed);
+            if (result == null) {
+                return false;
             }
 
+            //The views can't be worked out from the new encrypted text, so keep them first.
+            keepViews();
+
             //Encode the message if it is not already encoded.
-            if (encoded == null) {
+            if ((state & ENCODED) == 0) {
                 encode();
             }
 
+            //Decrypting compressed text gives the deflated bytes, so the encoded view is kept as the original content.
+            if (packed != null && encoded == null) {
+                encoded = content;
+            }
+
             //Updates the content of the message to the encrypted content.
-            content = formatContent(encrypted);
+            encrypted = result;
+            content = encrypted;
+            this.cipher = cipher;
+            compressed |= packed != null;
 
         } else {
-            encrypted = new int[0];
+            encrypted = "";
         }
+        return true;
     }
 
     /**
@@ -93,38 +219,60 @@ public class Message{
      * Updates the content to decrypted string.
      *
      * @param key, an integer used to decrypt the message
+     * @return true if the message was decrypted.
+     */
+    public boolean decrypt(int key) {
+        return decrypt(new CaesarCipher(key));
+    }
+
+    /**
+     * Method to decrypt the contents of the message with the cipher provided.
+     * Updates the content to decrypted string, decompressing it if it was compressed before encryption.
+     * If the cipher fails, the content is left unchanged.
+     *
+     * @param cipher, the cipher used to decrypt the message
+     * @return true if the message was decrypted, false if it isn't encrypted or the cipher failed.
      */
-    public void decrypt(int key) {
-        //Initialise the size of the array to length of encrypted array
-        decrypted = new int[encrypted.length];
+    public boolean decrypt(MessageCipher cipher) {
+        if(encrypted == null) {
+            System.out.println("Message is not encrypted.");
+            return false;
+        }
 
-        //Loop through each character and subtract the key value.
-        for (int i = 0; i<encrypted.length; i++) {
-            decrypted[i] = getContent().charAt(i) - key;
+        String result = content.isEmpty() ? content : cipher.decrypt(content);
+        if(result != null && compressed) {
+            result = MessageCompressor.decompress(result);
+        }
+        if(result == null) {
+            return false;
         }
 
         //Update the content of the message with the decrypted message.
-        content = formatContent(decrypted);
+        content = result;
+        compressed = false;
+        decrypted = null;
+        state |= DECRYPTED;
+        return true;
     }
 
     /**
-     * Helper method for encrypt and decrypt methods.
+     * Helper method for the setters of encoded, encrypted and decrypted arrays.
      * Format the content of the message by converting integers into a string.
      *
      * @param array, the array representing the int equivalent of character values.
      * @return formattedString, a String with the updated content.
      */
     public String formatContent(int[] array) {
-        String formattedString = "";
-        for (int i : array) {
-            formattedString = formattedString + (char) i;   //Cast every integer from the array to character.
+        char[] characters = new char[array.length];
+        for (int i = 0; i < array.length; i++) {
+            characters[i] = (char) array[i];   //Cast every integer from the array to character.
         }
 
-        return formattedString;
+        return new String(characters);
     }
 
     /**
-     * Accessor methods for next message in list, secrecy level, receiver, sender and contents of the message.
+     * Accessor methods for next and previous message in list, secrecy level, receiver, sender and contents of the message.
      */
     public Agent getFrom() {
         return from;
@@ -142,10 +290,74 @@ public class Message{
         return next;
     }
 
+    public Message getPrevious() {
+        return previous;
+    }
+
     public Clearance getSecrecy() {
         return secrecy;
     }
 
+    public MessageBody getBody() {
+        return body;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public int getKeyID() {
+        return keyID;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public Message getNextFromSender() {
+        return nextFromSender;
+    }
+
+    public Message getPreviousFromSender() {
+        return previousFromSender;
+    }
+
+    public Message getNextWithSecrecy() {
+        return nextWithSecrecy;
+    }
+
+    public Message getPreviousWithSecrecy() {
+        return previousWithSecrecy;
+    }
+
+    /**
+     * Accessors for the sequence number and time (in milliseconds) the message was received by its inbox.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * Estimates the memory the message takes up, used by bounded inboxes to account for their messages.
+     * Counts the message object and its content. Views shared with other messages are not counted.
+     *
+     * @return the estimated size in bytes.
+     */
+    public int sizeInBytes() {
+        return MESSAGE_OVERHEAD + 2 * content.length();
+    }
+
+    /**
+     * Accessor to check if the message has been encrypted.
+     */
+    public boolean isEncrypted() {
+        return encrypted != null;
+    }
+
     /**
      * Accessor for encoded, encrypted and decrypted array.
      *
@@ -153,10 +365,11 @@ public class Message{
      * @return the formated encoded array otherwise.
      */
     public String getEncoded() {
-        if(encoded == null) {
+        String encodedView = encodedView();
+        if(encodedView == null) {
             return "<not encoded>";
         } else {
-            return "encoded: " + output(encoded);
+            return "encoded: " + output(encodedView);
         }
     }
 
@@ -169,10 +382,53 @@ public class Message{
     }
 
     public String getDecrypted() {
-        if(decrypted == null) {
+        String decryptedView = decryptedView();
+        if(decryptedView == null) {
             return "<not decrypted>";
         } else {
-            return "decrypted: " + output(decrypted);
+            return "decrypted: " + output(decryptedView);
+        }
+    }
+
+    /**
+     * Works out the encoded view: the content before it was first encrypted.
+     *
+     * @return the encoded text, or null if the message hasn't been encoded.
+     */
+    private String encodedView() {
+        if((state & ENCODED) == 0) {
+            return null;
+        } else if(encoded != null) {
+            return encoded;
+        } else if(encrypted == null) {
+            return content;
+        } else {
+            return cipher == null ? null : cipher.decrypt(encrypted);
+        }
+    }
+
+    /**
+     * Works out the decrypted view: the content after it was decrypted.
+     *
+     * @return the decrypted text, or null if the message hasn't been decrypted.
+     */
+    private String decryptedView() {
+        if(decrypted != null) {
+            return decrypted;
+        }
+        return (state & DECRYPTED) == 0 ? null : content;
+    }
+
+    /**
+     * Stores the encoded and decrypted views before the content, encrypted text or cipher they are
+     * worked out from is changed.
+     */
+    private void keepViews() {
+        if(encoded == null && (state & ENCODED) != 0) {
+            encoded = encodedView();
+        }
+        if(decrypted == null && (state & DECRYPTED) != 0) {
+            decrypted = content;
         }
     }
 
@@ -185,13 +441,25 @@ public class Message{
      * @return concatenatedMessage, a formatted string of the array content.
      */
     public String output(int[] array) {
-        String concatenatedMessage = "";
-        String thisLetter;
+        StringBuilder concatenatedMessage = new StringBuilder(array.length * 5);
         for (int j : array) {
-            thisLetter = "[" + j + "]";
-            concatenatedMessage = concatenatedMessage + thisLetter;
+            concatenatedMessage.append('[').append(j).append(']');
+        }
+        return concatenatedMessage.toString();
+    }
+
+    /**
+     * Formats the character codes of a text the same way as output(int[]).
+     *
+     * @param text, text to format the character codes from.
+     * @return a formatted string of the character codes.
+     */
+    private String output(String text) {
+        StringBuilder concatenatedMessage = new StringBuilder(text.length() * 5);
+        for (int j = 0; j < text.length(); j++) {
+            concatenatedMessage.append('[').append((int) text.charAt(j)).append(']');
         }
-        return concatenatedMessage;
+        return concatenatedMessage.toString();
     }
 
 
@@ -207,29 +475,144 @@ public class Message{
     }
 
     public void setContent(String content) {
+        keepViews();
         this.content = content;
     }
 
+    /**
+     * Sets the content to text that is already encrypted, such as a message loaded from storage.
+     * The encrypted view is set to the same text so the message can be decrypted.
+     *
+     * @param encryptedContent, the encrypted text.
+     */
+    public void setEncryptedContent(String encryptedContent) {
+        keepViews();
+        this.content = encryptedContent;
+        this.encrypted = encryptedContent;
+        this.cipher = null;
+    }
+
     public void setNext(Message next) {
         this.next = next;
     }
 
+    public void setPrevious(Message previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Replaces the encrypted content with the shared copy from a payload store, used by Inbox.
+     * Only a message whose content is still the encrypted text is shared.
+     *
+     * @param store, the payload store.
+     */
+    void sharePayload(PayloadStore store) {
+        if(encrypted == null || content != encrypted || sharedPayload != null) {
+            return;
+        }
+        sharedPayload = store.acquire(encrypted);
+        content = sharedPayload;
+        encrypted = sharedPayload;
+    }
+
+    /**
+     * Gives the shared copy of the encrypted text back to the payload store, used by Inbox.
+     *
+     * @param store, the payload store.
+     */
+    void releasePayload(PayloadStore store) {
+        if(sharedPayload != null) {
+            store.release(sharedPayload);
+            sharedPayload = null;
+        }
+    }
+
+    /**
+     * Accessor and setter for the inbox holding the message, or null if it isn't in one. Set by Inbox.
+     */
+    Inbox getInbox() {
+        return inbox;
+    }
+
+    void setInbox(Inbox inbox) {
+        this.inbox = inbox;
+    }
+
+    /**
+     * Accessor and setter for where an inbox that keeps its messages outside the heap stored this message
+     * (see OffHeapInbox).
+     */
+    long getStoreOffset() {
+        return storeOffset;
+    }
+
+    void setStoreOffset(long storeOffset) {
+        this.storeOffset = storeOffset;
+    }
+
+    /**
+     * Setters for the inbox indexes, only used by Inbox.
+     */
+    void setNextFromSender(Message nextFromSender) {
+        this.nextFromSender = nextFromSender;
+    }
+
+    void setPreviousFromSender(Message previousFromSender) {
+        this.previousFromSender = previousFromSender;
+    }
+
+    void setNextWithSecrecy(Message nextWithSecrecy) {
+        this.nextWithSecrecy = nextWithSecrecy;
+    }
+
+    void setPreviousWithSecrecy(Message previousWithSecrecy) {
+        this.previousWithSecrecy = previousWithSecrecy;
+    }
+
+    void setReceived(long sequence, long receivedAt) {
+        this.sequence = sequence;
+        this.receivedAt = receivedAt;
+    }
+
     public void setEncoded(int[] encoded) {
-        this.encoded = encoded;
+        this.encoded = encoded == null ? null : formatContent(encoded);
+        state = (byte) (encoded == null ? state & ~ENCODED : state | ENCODED);
     }
 
     public void setEncrypted(int[] encrypted) {
-        this.encrypted = encrypted;
+        keepViews();
+        this.encrypted = encrypted == null ? null : formatContent(encrypted);
+        this.cipher = null;
     }
 
     public void setDecrypted(int[] decrypted) {
-        this.decrypted = decrypted;
+        this.decrypted = decrypted == null ? null : formatContent(decrypted);
+        state = (byte) (decrypted == null ? state & ~DECRYPTED : state | DECRYPTED);
     }
 
     public void setSecrecy(Clearance secrecy) {
         this.secrecy = secrecy;
     }
 
+    public void setBody(MessageBody body) {
+        this.body = body;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    public void setKeyID(int keyID) {
+        this.keyID = keyID;
+    }
+
+    /**
+     * Marks encrypted content as compressed, used when a message is restored from its stored form.
+     */
+    void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
     /**
      * Method to assist with debugging the program.
      *
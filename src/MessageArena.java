@@ -0,0 +1,152 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap memory for message records, shared by the off-heap inboxes of many agents.
+ * Memory is taken from direct buffers (chunks) that are outside the Java heap, so stored records
+ * add nothing for the garbage collector to trace.
+ *
+ * Records are stored in slots whose size is a power of two. Freed slots are kept on a free list
+ * for their size (linked through the first 8 bytes of each free slot) and reused before new space is taken.
+ * Chunks are never given back.
+ *
+ * Offsets combine the chunk number (high 32 bits) and the position in the chunk (low 32 bits).
+ *
+ * Author: Fatima Navid
+ */
+public class MessageArena {
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int MIN_SLOT_SHIFT = 6;
+    private static final long NO_SLOT = -1;
+
+    private final int chunkSize;
+
+    /**
+     * Replaced with a longer copy when a chunk is added, so slots can be found without locking.
+     */
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    /**
+     * First free slot of each size (slot size 1 << (MIN_SLOT_SHIFT + index)).
+     */
+    private final long[] freeSlots;
+
+    /**
+     * Position of the next new slot in the last chunk.
+     */
+    private int position;
+    private long usedBytes;
+
+    /**
+     * Constructor for an arena with the default chunk size.
+     */
+    public MessageArena() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor for an arena.
+     *
+     * @param chunkSize, the size of each direct buffer. The largest record the arena can hold is the largest
+     *                  power of two slot that fits in a chunk, so a power of two wastes nothing.
+     */
+    public MessageArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+        freeSlots = new long[slotClass(chunkSize) + 1];
+        Arrays.fill(freeSlots, NO_SLOT);
+        position = chunkSize;   //No chunk yet, the first allocation creates one.
+    }
+
+    /**
+     * Takes a slot with room for a record.
+     *
+     * @param length, the length of the record in bytes.
+     * @return the offset of the slot, or -1 if the record's slot is larger than a chunk.
+     */
+    public synchronized long allocate(int length) {
+        //Slots are rounded up to a power of two, so the rounded size is what has to fit in a chunk.
+        int slotClass = slotClass(length);
+        if((1L << (MIN_SLOT_SHIFT + slotClass)) > chunkSize) {
+            System.out.println("Message too large for arena.");
+            return -1;
+        }
+
+        int slotSize = 1 << (MIN_SLOT_SHIFT + slotClass);
+        usedBytes += slotSize;
+
+        long offset = freeSlots[slotClass];
+        if(offset != NO_SLOT) {
+            freeSlots[slotClass] = chunk(offset).getLong(position(offset));
+            return offset;
+        }
+
+        if(position + slotSize > chunkSize) {
+            ByteBuffer[] larger = Arrays.copyOf(chunks, chunks.length + 1);
+            larger[chunks.length] = ByteBuffer.allocateDirect(chunkSize);
+            chunks = larger;
+            position = 0;
+        }
+        offset = ((long) (chunks.length - 1) << 32) | position;
+        position += slotSize;
+        return offset;
+    }
+
+    /**
+     * Gives a slot back so it can be reused.
+     *
+     * @param offset, the offset of the slot.
+     * @param length, the length of the record it was taken for.
+     */
+    public synchronized void free(long offset, int length) {
+        int slotClass = slotClass(length);
+        usedBytes -= 1 << (MIN_SLOT_SHIFT + slotClass);
+        chunk(offset).putLong(position(offset), freeSlots[slotClass]);
+        freeSlots[slotClass] = offset;
+    }
+
+    /**
+     * Helper method to find the smallest slot size that holds a record.
+     *
+     * @param length, the length of the record in bytes.
+     * @return the index of the slot size.
+     */
+    private static int slotClass(int length) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return Math.max(shift - MIN_SLOT_SHIFT, 0);
+    }
+
+    /**
+     * Accessor for the chunk a slot is in. Only absolute get and put methods should be used on it,
+     * as the chunk is shared by every inbox using the arena.
+     *
+     * @param offset, the offset of the slot.
+     * @return the chunk.
+     */
+    public ByteBuffer chunk(long offset) {
+        return chunks[(int) (offset >>> 32)];
+    }
+
+    /**
+     * Accessor for the position of a slot in its chunk.
+     *
+     * @param offset, the offset of the slot.
+     * @return the position in the chunk.
+     */
+    public static int position(long offset) {
+        return (int) offset;
+    }
+
+    /**
+     * Accessor for the number of bytes in slots that are in use.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Accessor for the number of bytes of direct memory the arena has taken.
+     */
+    public synchronized long getReservedBytes() {
+        return (long) chunks.length * chunkSize;
+    }
+}
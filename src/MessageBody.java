@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Large payload attached to a message, such as a file, that is never held in memory as a whole.
+ * Encrypting the body reads it from its source one chunk at a time and writes the encrypted chunks to a store file.
+ * Decrypting streams the chunks back out of the store file, so memory use stays the same whatever the size.
+ *
+ * The store file holds one record per chunk: [int plain length][encrypted chunk].
+ * With an AEAD cipher every chunk is authenticated on its own.
+ *
+ * Author: Fatima Navid
+ */
+public class MessageBody {
+    /**
+     * Number of plain bytes encrypted at a time.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+    private static final int HEADER_LENGTH = Integer.BYTES;
+
+    /**
+     * Per-thread buffers for one plain chunk and one encrypted chunk (with room for the largest cipher overhead).
+     */
+    private static final ThreadLocal<ByteBuffer> PLAIN_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+    private static final ThreadLocal<ByteBuffer> RECORD_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(HEADER_LENGTH + CHUNK_SIZE + 1024));
+
+    private ReadableByteChannel source;
+    private final Path store;
+    private long length;
+    private boolean encrypted;
+
+    /**
+     * Constructor for a body read from a channel.
+     *
+     * @param source, the channel to read the body from when it is encrypted.
+     * @param store, the file to store the encrypted body in.
+     */
+    public MessageBody(ReadableByteChannel source, Path store) {
+        this.source = source;
+        this.store = store;
+    }
+
+    /**
+     * Constructor for a body read from a stream.
+     *
+     * @param source, the stream to read the body from when it is encrypted.
+     * @param store, the file to store the encrypted body in.
+     */
+    public MessageBody(InputStream source, Path store) {
+        this(Channels.newChannel(source), store);
+    }
+
+    /**
+     * Encrypts the body from its source into the store file, one chunk at a time.
+     * The source is read once (and closed), so a body can only be encrypted once, even if encrypting fails.
+     * If anything fails, an error message is printed and the store file is removed.
+     *
+     * @param cipher, the cipher used to encrypt every chunk.
+     * @return true if the body was encrypted.
+     */
+    public boolean encrypt(MessageCipher cipher) {
+        if(encrypted) {
+            System.out.println("Body is already encrypted.");
+            return false;
+        }
+        if(cipher.encryptedLength(CHUNK_SIZE) > RECORD_BUFFER.get().capacity() - HEADER_LENGTH) {
+            System.out.println("Cipher output is too large for a body chunk.");
+            return false;
+        }
+
+        ByteBuffer plain = PLAIN_BUFFER.get();
+        ByteBuffer record = RECORD_BUFFER.get();
+        long total = 0;
+        boolean failed = false;
+        try (ReadableByteChannel in = source;
+             FileChannel out = FileChannel.open(store, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(fill(in, plain)) {
+                plain.flip();
+                int plainLength = plain.remaining();
+                record.clear();
+                record.putInt(plainLength);
+                if(cipher.encrypt(plain, record) < 0) {
+                    failed = true;
+                    break;
+                }
+                record.flip();
+                while(record.hasRemaining()) {
+                    out.write(record);
+                }
+                total += plainLength;
+                plain.clear();
+            }
+        } catch(IOException e) {
+            System.out.println("Body could not be stored: " + e.getMessage());
+            failed = true;
+        } finally {
+            plain.clear();
+        }
+
+        source = null;
+        if(failed) {
+            deleteStore();
+            return false;
+        }
+        length = total;
+        encrypted = true;
+        return true;
+    }
+
+    /**
+     * Decrypts the stored body one chunk at a time and writes it to a channel.
+     *
+     * @param cipher, the cipher used to decrypt every chunk.
+     * @param out, the channel to write the decrypted body to.
+     * @return the number of bytes written, or -1 if the body isn't encrypted or a chunk could not be decrypted.
+     * @throws IOException if the store file or the channel fails.
+     */
+    public long decryptTo(MessageCipher cipher, WritableByteChannel out) throws IOException {
+        if(!encrypted) {
+            System.out.println("Body is not encrypted.");
+            return -1;
+        }
+
+        ByteBuffer plain = PLAIN_BUFFER.get();
+        ByteBuffer record = RECORD_BUFFER.get();
+        long total = 0;
+        try (FileChannel in = FileChannel.open(store, StandardOpenOption.READ)) {
+            ByteBuffer header = record.duplicate();
+            while(total < length) {
+                header.clear().limit(HEADER_LENGTH);
+                if(!fill(in, header) || header.hasRemaining()) {
+                    System.out.println("Body is incomplete.");
+                    return -1;
+                }
+                int plainLength = header.getInt(0);
+                int encryptedLength = cipher.encryptedLength(plainLength);
+                if(plainLength < 0 || plainLength > CHUNK_SIZE || encryptedLength > record.capacity()) {
+                    System.out.println("Body is corrupted.");
+                    return -1;
+                }
+
+                record.clear().limit(encryptedLength);
+                if(!fill(in, record) || record.hasRemaining()) {
+                    System.out.println("Body is incomplete.");
+                    return -1;
+                }
+                record.flip();
+                plain.clear();
+                if(cipher.decrypt(record, plain) < 0) {
+                    return -1;
+                }
+                plain.flip();
+                total += plain.remaining();
+                while(plain.hasRemaining()) {
+                    out.write(plain);
+                }
+            }
+        } finally {
+            plain.clear();
+        }
+        return total;
+    }
+
+    /**
+     * Decrypts the stored body and writes it to a stream.
+     *
+     * @param cipher, the cipher used to decrypt every chunk.
+     * @param out, the stream to write the decrypted body to.
+     * @return the number of bytes written, or -1 if the body could not be decrypted.
+     * @throws IOException if the store file or the stream fails.
+     */
+    public long decryptTo(MessageCipher cipher, OutputStream out) throws IOException {
+        return decryptTo(cipher, Channels.newChannel(out));
+    }
+
+    /**
+     * Removes the store file, for when the message is no longer needed.
+     */
+    public void deleteStore() {
+        try {
+            Files.deleteIfExists(store);
+        } catch(IOException e) {
+            System.out.println("Body could not be deleted: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to read from a channel until the buffer is full or the channel ends.
+     *
+     * @param in, the channel to read from.
+     * @param buffer, the buffer to fill.
+     * @return true if any bytes were read into the buffer.
+     * @throws IOException if the channel fails.
+     */
+    private static boolean fill(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while(buffer.hasRemaining() && in.read(buffer) >= 0) {
+            //Keep reading, a channel may return fewer bytes than asked for.
+        }
+        return buffer.position() > start;
+    }
+
+    /**
+     * Accessors for the plain length of the body, the store file and whether the body is encrypted.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public Path getStore() {
+        return store;
+    }
+
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+}
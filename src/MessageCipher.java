@@ -0,0 +1,54 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for the ciphers used to encrypt and decrypt messages.
+ * Messages and secret agents delegate to a cipher instead of using a fixed encryption method.
+ *
+ * Text methods return null and print an error message if the content could not be encrypted or decrypted.
+ * Buffer methods read every remaining byte of the input and write the result into the output.
+ *
+ * Author: Fatima Navid
+ */
+public interface MessageCipher {
+    /**
+     * Encrypts the content of a message.
+     *
+     * @param content, the text to encrypt.
+     * @return the encrypted text, or null if encryption failed.
+     */
+    String encrypt(String content);
+
+    /**
+     * Decrypts the content of a message.
+     *
+     * @param content, the text to decrypt.
+     * @return the decrypted text, or null if decryption failed.
+     */
+    String decrypt(String content);
+
+    /**
+     * Encrypts the remaining bytes of the input buffer into the output buffer.
+     *
+     * @param input, the bytes to encrypt.
+     * @param output, the buffer to write the encrypted bytes into.
+     * @return the number of bytes written, or -1 if encryption failed.
+     */
+    int encrypt(ByteBuffer input, ByteBuffer output);
+
+    /**
+     * Decrypts the remaining bytes of the input buffer into the output buffer.
+     *
+     * @param input, the bytes to decrypt.
+     * @param output, the buffer to write the decrypted bytes into.
+     * @return the number of bytes written, or -1 if decryption failed.
+     */
+    int decrypt(ByteBuffer input, ByteBuffer output);
+
+    /**
+     * Calculates how many bytes encrypting the given number of bytes can produce.
+     *
+     * @param inputLength, the number of bytes to encrypt.
+     * @return the largest number of encrypted bytes.
+     */
+    int encryptedLength(int inputLength);
+}
@@ -0,0 +1,241 @@
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+
+/**
+ * Compact binary format for sending and storing messages.
+ *
+ * A message is written as:
+ * version (1 byte), body length (varint), then the body:
+ * sender agent ID (varint), receiver agent ID (varint), secrecy (1 byte, 0xFF for none),
+ * flags (1 byte), key ID (varint, only if the key ID flag is set), payload length in bytes (varint) and the payload.
+ * The payload is one byte per character when every character fits in a byte, otherwise two bytes per character.
+ *
+ * Version 1 has no key ID and only the encrypted and wide characters flags. Version 2 adds the key ID and
+ * compressed flags. Messages that use neither are still written as version 1, so older decoders can read them,
+ * and both versions are decoded.
+ *
+ * Encoding writes straight into the buffer without creating any objects.
+ *
+ * Author: Fatima Navid
+ */
+public class MessageCodec {
+    public static final byte VERSION = 2;
+    public static final byte FIRST_VERSION = 1;
+
+    /**
+     * Flags stored with each message.
+     */
+    static final int ENCRYPTED_FLAG = 1;
+    static final int WIDE_CHARS_FLAG = 2;
+    static final int KEY_ID_FLAG = 4;
+    static final int COMPRESSED_FLAG = 8;
+
+    private static final int NO_SECRECY = 0xFF;
+    private static final Clearance[] CLEARANCES = Clearance.values();
+
+    /**
+     * Per-thread buffer reused when decoding content, and the largest buffer size kept between calls.
+     */
+    private static final int MAX_DECODE_BUFFER = 1 << 16;
+    private static final ThreadLocal<char[]> DECODE_BUFFER = ThreadLocal.withInitial(() -> new char[256]);
+
+    /**
+     * Calculates the number of bytes a message takes when encoded.
+     *
+     * @param message, the message to measure.
+     * @return the encoded length in bytes.
+     */
+    public static int encodedLength(Message message) {
+        int body = bodyLength(message);
+        return 1 + varintLength(body) + body;
+    }
+
+    /**
+     * Encodes a message into a buffer.
+     * If the message doesn't fit, nothing is written and the buffer position is unchanged.
+     *
+     * @param message, the message to encode.
+     * @param buffer, the buffer to write into.
+     * @return the number of bytes written, or -1 if the message doesn't fit.
+     */
+    public static int encode(Message message, ByteBuffer buffer) {
+        String content = message.getContent();
+        boolean wide = hasWideChars(content);
+        int payload = content.length() * (wide ? 2 : 1);
+        int body = bodyLength(message, payload);
+        int total = 1 + varintLength(body) + body;
+        if(buffer.remaining() < total) {
+            return -1;
+        }
+
+        boolean keyID = message.getKeyID() != Message.NO_KEY_ID;
+        int flags = (message.isEncrypted() ? ENCRYPTED_FLAG : 0) | (wide ? WIDE_CHARS_FLAG : 0)
+                | (keyID ? KEY_ID_FLAG : 0) | (message.isCompressed() ? COMPRESSED_FLAG : 0);
+        buffer.put(keyID || message.isCompressed() ? VERSION : FIRST_VERSION);
+        putVarint(buffer, body);
+        putVarint(buffer, message.getFrom().getAgentID());
+        putVarint(buffer, message.getTo().getAgentID());
+        buffer.put((byte) (message.getSecrecy() == null ? NO_SECRECY : message.getSecrecy().ordinal()));
+        buffer.put((byte) flags);
+        if(keyID) {
+            putVarint(buffer, message.getKeyID());
+        }
+        putVarint(buffer, payload);
+        for(int i = 0; i < content.length(); i++) {
+            if(wide) {
+                buffer.putChar(content.charAt(i));
+            } else {
+                buffer.put((byte) content.charAt(i));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Decodes the next message from a buffer.
+     * The buffer position is moved past the message even if it can't be decoded.
+     * An error message is printed if the version or an agent ID is unknown.
+     *
+     * @param buffer, the buffer to read from.
+     * @param agents, looks up an agent by agent ID.
+     * @return the message, or null if it could not be decoded.
+     */
+    public static Message decode(ByteBuffer buffer, IntFunction<Agent> agents) {
+        byte version = buffer.get();
+        int body = getVarint(buffer);
+        int end = buffer.position() + body;
+        if(version != VERSION && version != FIRST_VERSION) {
+            System.out.println("Unsupported message format version: " + version);
+            buffer.position(end);
+            return null;
+        }
+
+        int fromID = getVarint(buffer);
+        int toID = getVarint(buffer);
+        int secrecy = buffer.get() & 0xFF;
+        int flags = buffer.get();
+        if(version == FIRST_VERSION) {
+            flags &= ENCRYPTED_FLAG | WIDE_CHARS_FLAG;
+        }
+        int keyID = (flags & KEY_ID_FLAG) != 0 ? getVarint(buffer) : Message.NO_KEY_ID;
+        int payload = getVarint(buffer);
+
+        Agent from = agents.apply(fromID);
+        Agent to = agents.apply(toID);
+        if(from == null || to == null) {
+            System.out.println("Unknown agent: " + (from == null ? fromID : toID));
+            buffer.position(end);
+            return null;
+        }
+
+        String content = readContent(buffer, payload, (flags & WIDE_CHARS_FLAG) != 0);
+        Message message = new Message(from, to, content, secrecy == NO_SECRECY ? null : CLEARANCES[secrecy]);
+        if((flags & ENCRYPTED_FLAG) != 0) {
+            message.setEncryptedContent(content);
+        }
+        message.setKeyID(keyID);
+        message.setCompressed((flags & COMPRESSED_FLAG) != 0);
+        buffer.position(end);
+        return message;
+    }
+
+    /**
+     * Helper method to read the payload into a string through a reusable buffer.
+     *
+     * @param buffer, the buffer to read from.
+     * @param payload, the payload length in bytes.
+     * @param wide, true if the payload has two bytes per character.
+     * @return the content.
+     */
+    private static String readContent(ByteBuffer buffer, int payload, boolean wide) {
+        int length = wide ? payload / 2 : payload;
+        char[] characters = DECODE_BUFFER.get();
+        if(characters.length < length) {
+            characters = new char[length];
+            if(length <= MAX_DECODE_BUFFER) {
+                DECODE_BUFFER.set(characters);
+            }
+        }
+
+        for(int i = 0; i < length; i++) {
+            characters[i] = wide ? buffer.getChar() : (char) (buffer.get() & 0xFF);
+        }
+        return new String(characters, 0, length);
+    }
+
+    /**
+     * Helper methods to calculate the body length of a message.
+     */
+    private static int bodyLength(Message message) {
+        String content = message.getContent();
+        return bodyLength(message, content.length() * (hasWideChars(content) ? 2 : 1));
+    }
+
+    private static int bodyLength(Message message, int payload) {
+        int keyID = message.getKeyID() == Message.NO_KEY_ID ? 0 : varintLength(message.getKeyID());
+        return varintLength(message.getFrom().getAgentID()) + varintLength(message.getTo().getAgentID())
+                + 1 + 1 + keyID + varintLength(payload) + payload;
+    }
+
+    /**
+     * Checks if any character needs more than one byte.
+     *
+     * @param content, the text to check.
+     * @return true if a character is above 0xFF.
+     */
+    private static boolean hasWideChars(String content) {
+        for(int i = 0; i < content.length(); i++) {
+            if(content.charAt(i) > 0xFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes an int as a varint: 7 bits per byte, with the top bit set on every byte except the last.
+     *
+     * @param buffer, the buffer to write into.
+     * @param value, the value to write (treated as unsigned).
+     */
+    public static void putVarint(ByteBuffer buffer, int value) {
+        while((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a varint written by putVarint.
+     *
+     * @param buffer, the buffer to read from.
+     * @return the value.
+     */
+    public static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0 && shift < 35);
+        return value;
+    }
+
+    /**
+     * Calculates the number of bytes a value takes as a varint.
+     *
+     * @param value, the value (treated as unsigned).
+     * @return the number of bytes, from 1 to 5.
+     */
+    public static int varintLength(int value) {
+        int length = 1;
+        while((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses message content with deflate before it is encrypted.
+ * Content shorter than the threshold, or that doesn't get smaller, is left as it is.
+ * Compressed content is stored as text with one character per byte, like the AEAD ciphers do,
+ * so it can go through any cipher.
+ *
+ * Author: Fatima Navid
+ */
+public class MessageCompressor {
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    /**
+     * Compressor with the default threshold and compression level.
+     */
+    public static final MessageCompressor DEFAULT = new MessageCompressor(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * Per-thread deflater and inflater, reset between uses as creating them allocates native memory.
+     */
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private final ThreadLocal<Deflater> deflater;
+
+    private final int threshold;
+
+    /**
+     * Constructor for a compressor.
+     *
+     * @param threshold, the smallest content length, in characters, that is compressed.
+     * @param level, the deflate level (0-9, or -1 for the default).
+     */
+    public MessageCompressor(int threshold, int level) {
+        this.threshold = threshold;
+        deflater = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    /**
+     * Compresses text.
+     *
+     * @param content, the text to compress.
+     * @return the compressed text, or null if the text is under the threshold or doesn't get smaller.
+     */
+    public String compress(String content) {
+        if(content.length() < threshold) {
+            return null;
+        }
+
+        byte[] input = content.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = this.deflater.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+
+        //Only worth keeping if it is smaller, so the output never needs to grow past the input.
+        byte[] output = new byte[input.length];
+        int length = 0;
+        while(!deflater.finished() && length < output.length) {
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        if(!deflater.finished() || length >= content.length()) {
+            return null;
+        }
+        return new String(output, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decompresses text made by compress.
+     * If the text isn't valid compressed data, an error message is printed.
+     *
+     * @param compressed, the compressed text.
+     * @return the original text, or null if it couldn't be decompressed.
+     */
+    public static String decompress(String compressed) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed.getBytes(StandardCharsets.ISO_8859_1));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length() * 4);
+        byte[] buffer = new byte[4096];
+        try {
+            while(!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if(length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    System.out.println("Message could not be decompressed.");
+                    return null;
+                }
+                output.write(buffer, 0, length);
+            }
+        } catch(DataFormatException e) {
+            System.out.println("Message could not be decompressed.");
+            return null;
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Accessor for the threshold.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of messages stored in memory-mapped segment files.
+ * Appending a message is a sequential write into the current segment, and reading one returns
+ * a view of the mapped bytes without copying them. When a segment is full a new one is started.
+ *
+ * Every record is an int length followed by the record bytes:
+ * message records hold the flags, secrecy, sender UID, receiver UID and content of a message,
+ * followed by the key ID when the key ID flag is set,
+ * delete records hold the offset of a message that has been removed from its inbox.
+ * A length of 0 marks the end of the written part of a segment.
+ *
+ * Offsets combine the segment number (high 32 bits) and the position in the segment (low 32 bits).
+ *
+ * Author: Fatima Navid
+ */
+public class MessageLog implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Record types.
+     */
+    static final byte MESSAGE_RECORD = 1;
+    static final byte DELETE_RECORD = 2;
+
+    /**
+     * Flag set in a message record when the content is encrypted.
+     */
+    static final byte ENCRYPTED_FLAG = 1;
+
+    /**
+     * Flag set in a message record when the content was compressed before it was encrypted.
+     */
+    static final byte COMPRESSED_FLAG = 2;
+
+    /**
+     * Flag set in a message record when it ends with the ID of the session key the message was encrypted with.
+     */
+    static final byte KEY_ID_FLAG = 4;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<FileChannel> channels = new ArrayList<>();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    /**
+     * Offsets of every record, in the order they were appended.
+     */
+    private long[] index = new long[1024];
+    private int recordCount;
+
+    /**
+     * Position of the next record in the last segment.
+     */
+    private int writePosition;
+
+    /**
+     * Constructor to open the log in a directory with the default segment size.
+     *
+     * @param directory, the directory holding the segment files.
+     * @throws IOException if the segments can't be opened.
+     */
+    public MessageLog(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor to open the log in a directory.
+     * Existing segments are mapped and scanned to rebuild the offset index.
+     *
+     * @param directory, the directory holding the segment files.
+     * @param segmentSize, the size of each segment file in bytes.
+     * @throws IOException if the segments can't be opened.
+     */
+    public MessageLog(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        Path[] files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().toArray(Path[]::new);
+        }
+
+        for(Path file : files) {
+            MappedByteBuffer segment = map(file, Math.max(Files.size(file), segmentSize));
+            writePosition = scan(segments.size() - 1, segment);
+        }
+
+        if(segments.isEmpty()) {
+            map(segmentPath(0), segmentSize);
+            writePosition = 0;
+        }
+    }
+
+    /**
+     * Appends a message to the log.
+     *
+     * @param message, the message to store.
+     * @return the offset of the record, or -1 if the message is too large for a segment.
+     * @throws IOException if a new segment can't be created.
+     */
+    public synchronized long append(Message message) throws IOException {
+        byte[] sender = message.getFrom().getUID().getBytes(StandardCharsets.UTF_8);
+        byte[] receiver = message.getTo().getUID().getBytes(StandardCharsets.UTF_8);
+        String content = message.getContent();
+        boolean keyID = message.getKeyID() != Message.NO_KEY_ID;
+        int length = 1 + 1 + 1 + 2 + sender.length + 2 + receiver.length + 4 + content.length() * 2 + (keyID ? 4 : 0);
+
+        ByteBuffer segment = reserve(length);
+        if(segment == null) {
+            System.out.println("Message too large for log.");
+            return -1;
+        }
+
+        int start = writePosition;
+        segment.position(start + 4);
+        segment.put(MESSAGE_RECORD);
+        segment.put((byte) ((message.isEncrypted() ? ENCRYPTED_FLAG : 0) | (message.isCompressed() ? COMPRESSED_FLAG : 0)
+                | (keyID ? KEY_ID_FLAG : 0)));
+        segment.put(message.getSecrecy() == null ? -1 : (byte) message.getSecrecy().ordinal());
+        segment.putShort((short) sender.length).put(sender);
+        segment.putShort((short) receiver.length).put(receiver);
+        segment.putInt(content.length());
+        for(int i = 0; i < content.length(); i++) {
+            segment.putChar(content.charAt(i));
+        }
+        if(keyID) {
+            segment.putInt(message.getKeyID());
+        }
+
+        return commit(segment, start, length);
+    }
+
+    /**
+     * Appends a record marking a message as removed from its inbox.
+     *
+     * @param offset, the offset of the message record.
+     * @throws IOException if a new segment can't be created.
+     */
+    public synchronized void appendDelete(long offset) throws IOException {
+        int length = 1 + 8;
+        ByteBuffer segment = reserve(length);
+        int start = writePosition;
+        segment.position(start + 4);
+        segment.put(DELETE_RECORD);
+        segment.putLong(offset);
+        commit(segment, start, length);
+    }
+
+    /**
+     * Reads the record at an offset.
+     * The record is a view of the mapped segment, so no bytes are copied.
+     *
+     * @param offset, the offset of the record.
+     * @return the record.
+     */
+    public synchronized MessageRecord read(long offset) {
+        ByteBuffer segment = segments.get((int) (offset >>> 32)).duplicate();
+        int position = (int) offset;
+        int length = segment.getInt(position);
+        return new MessageRecord(offset, segment.position(position + 4).limit(position + 4 + length).slice());
+    }
+
+    /**
+     * Calls the visitor with the offset of every record, in the order they were appended.
+     *
+     * @param visitor, called for each record offset.
+     */
+    public void replay(LongConsumer visitor) {
+        long[] offsets;
+        int count;
+        synchronized(this) {
+            offsets = index;
+            count = recordCount;
+        }
+        for(int i = 0; i < count; i++) {
+            visitor.accept(offsets[i]);
+        }
+    }
+
+    /**
+     * Accessor for the number of records in the log.
+     */
+    public synchronized int size() {
+        return recordCount;
+    }
+
+    /**
+     * Writes every segment to disk.
+     */
+    public synchronized void flush() {
+        for(MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Writes every segment to disk and closes the segment files.
+     *
+     * @throws IOException if a file can't be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        for(FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Makes room for a record in the current segment, starting a new segment if it doesn't fit.
+     *
+     * @param length, the length of the record, not counting its length field.
+     * @return the segment to write into, or null if the record is larger than a segment.
+     * @throws IOException if a new segment can't be created.
+     */
+    private ByteBuffer reserve(int length) throws IOException {
+        //Room is left for the length field and for the 0 length marking the end of the segment.
+        if(4 + length + 4 > segmentSize) {
+            return null;
+        }
+        if(writePosition + 4 + length + 4 > segmentSize) {
+            map(segmentPath(segments.size()), segmentSize);
+            writePosition = 0;
+        }
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Finishes a record by writing its length, then adds it to the index.
+     * The length is written last so a partly written record is never read back.
+     *
+     * @param segment, the segment the record was written into.
+     * @param start, the position of the record.
+     * @param length, the length of the record, not counting its length field.
+     * @return the offset of the record.
+     */
+    private long commit(ByteBuffer segment, int start, int length) {
+        segment.putInt(start, length);
+        writePosition = start + 4 + length;
+        long offset = ((long) (segments.size() - 1) << 32) | start;
+        addToIndex(offset);
+        return offset;
+    }
+
+    /**
+     * Scans a segment and adds each record to the index.
+     *
+     * @param segmentNumber, the number of the segment.
+     * @param segment, the mapped segment.
+     * @return the position after the last record.
+     */
+    private int scan(int segmentNumber, ByteBuffer segment) {
+        int position = 0;
+        while(position + 4 <= segment.capacity()) {
+            int length = segment.getInt(position);
+            if(length <= 0 || position + 4 + length > segment.capacity()) {
+                break;
+            }
+            addToIndex(((long) segmentNumber << 32) | position);
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    /**
+     * Adds a record offset to the index, growing it when it is full.
+     *
+     * @param offset, the offset to add.
+     */
+    private void addToIndex(long offset) {
+        if(recordCount == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[recordCount++] = offset;
+    }
+
+    /**
+     * Maps a segment file into memory and adds it to the list of segments.
+     *
+     * @param file, the segment file.
+     * @param size, the number of bytes to map.
+     * @return the mapped segment.
+     * @throws IOException if the file can't be mapped.
+     */
+    private MappedByteBuffer map(Path file, long size) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        channels.add(channel);
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Creates the path of a segment file.
+     *
+     * @param segmentNumber, the number of the segment.
+     * @return the path of the segment file.
+     */
+    private Path segmentPath(int segmentNumber) {
+        return directory.resolve(String.format("segment-%08d.log", segmentNumber));
+    }
+}
@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * View of one record in a message log.
+ * Fields are read straight from the mapped bytes when their accessors are called.
+ *
+ * Author: Fatima Navid
+ */
+public class MessageRecord {
+    private final long offset;
+    private final ByteBuffer bytes;
+
+    /**
+     * Constructor for a view of the record bytes.
+     *
+     * @param offset, the offset of the record in the log.
+     * @param bytes, the record bytes, not including the length field.
+     */
+    MessageRecord(long offset, ByteBuffer bytes) {
+        this.offset = offset;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Accessor for the offset of the record in the log.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Accessor to check if this record is a message, rather than a delete marker.
+     */
+    public boolean isMessage() {
+        return bytes.get(0) == MessageLog.MESSAGE_RECORD;
+    }
+
+    /**
+     * Accessor for the offset of the message a delete record removes.
+     */
+    public long getDeletedOffset() {
+        return bytes.getLong(1);
+    }
+
+    /**
+     * Accessor to check if the content of a message record is encrypted.
+     */
+    public boolean isEncrypted() {
+        return (bytes.get(1) & MessageLog.ENCRYPTED_FLAG) != 0;
+    }
+
+    /**
+     * Accessor to check if the content of a message record was compressed before it was encrypted.
+     */
+    public boolean isCompressed() {
+        return (bytes.get(1) & MessageLog.COMPRESSED_FLAG) != 0;
+    }
+
+    /**
+     * Accessor for the ID of the session key a message record was encrypted with.
+     *
+     * @return the key ID, or Message.NO_KEY_ID if the record has none.
+     */
+    public int getKeyID() {
+        if((bytes.get(1) & MessageLog.KEY_ID_FLAG) == 0) {
+            return Message.NO_KEY_ID;
+        }
+        int position = contentPosition();
+        return bytes.getInt(position + 4 + bytes.getInt(position) * 2);
+    }
+
+    /**
+     * Accessor for the clearance level of a message record.
+     */
+    public Clearance getSecrecy() {
+        int ordinal = bytes.get(2);
+        return ordinal < 0 ? null : Clearance.values()[ordinal];
+    }
+
+    /**
+     * Accessor for the sender UID of a message record.
+     */
+    public String getSenderUID() {
+        return readString(3);
+    }
+
+    /**
+     * Accessor for the receiver UID of a message record.
+     */
+    public String getReceiverUID() {
+        return readString(receiverPosition());
+    }
+
+    /**
+     * Accessor for the content of a message record.
+     */
+    public String getContent() {
+        int position = contentPosition();
+        char[] content = new char[bytes.getInt(position)];
+        position += 4;
+        for(int i = 0; i < content.length; i++) {
+            content[i] = bytes.getChar(position + i * 2);
+        }
+        return new String(content);
+    }
+
+    /**
+     * Helper method to find where the receiver UID starts.
+     *
+     * @return the position of the receiver UID.
+     */
+    private int receiverPosition() {
+        return 3 + 2 + bytes.getShort(3);
+    }
+
+    /**
+     * Helper method to find where the content length starts.
+     *
+     * @return the position of the content length.
+     */
+    private int contentPosition() {
+        int position = receiverPosition();
+        return position + 2 + bytes.getShort(position);
+    }
+
+    /**
+     * Helper method to read a length prefixed UTF-8 string.
+     *
+     * @param position, the position of the length.
+     * @return the string.
+     */
+    private String readString(int position) {
+        byte[] text = new byte[bytes.getShort(position)];
+        bytes.get(position + 2, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Asynchronous pipeline for sending messages, so senders don't wait for encryption and delivery.
+ *
+ * Sent messages go through four stages, each with its own bounded queue and worker threads:
+ * validate (sender and receiver match), clearance check, encrypt, and deliver to the receiver's inbox.
+ * Each submission returns a future that completes with the delivery status.
+ * When a queue is full, submit waits for room (and so do the stages feeding it), which slows senders
+ * down to the rate messages can be delivered. trySubmit fails with QUEUE_FULL instead of waiting.
+ *
+ * Deliveries happen on a router thread, so receivers that read while messages arrive should use a ConcurrentInbox.
+ * With more than one encrypt worker, messages may be delivered in a different order than they were submitted.
+ *
+ * Author: Fatima Navid
+ */
+public class MessageRouter {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Marker passed down the pipeline to stop the workers.
+     */
+    private static final Delivery SHUTDOWN = new Delivery(null, null, null, null);
+
+    private final BlockingQueue<Delivery> validateQueue;
+    private final BlockingQueue<Delivery> clearanceQueue;
+    private final BlockingQueue<Delivery> encryptQueue;
+    private final BlockingQueue<Delivery> deliverQueue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * Constructor for a router with the default queue capacity and one encrypt worker.
+     */
+    public MessageRouter() {
+        this(DEFAULT_QUEUE_CAPACITY, 1);
+    }
+
+    /**
+     * Constructor for a router.
+     *
+     * @param queueCapacity, the number of messages each stage can hold.
+     * @param encryptWorkers, the number of threads encrypting messages.
+     */
+    public MessageRouter(int queueCapacity, int encryptWorkers) {
+        validateQueue = new ArrayBlockingQueue<>(queueCapacity);
+        clearanceQueue = new ArrayBlockingQueue<>(queueCapacity);
+        encryptQueue = new ArrayBlockingQueue<>(queueCapacity);
+        deliverQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        startStage("validate", 1, validateQueue, clearanceQueue, this::validate);
+        startStage("clearance", 1, clearanceQueue, encryptQueue, this::checkClearance);
+        startStage("encrypt", encryptWorkers, encryptQueue, deliverQueue, this::encrypt);
+        startStage("deliver", 1, deliverQueue, null, this::deliver);
+    }
+
+    /**
+     * Submits a message for delivery, waiting while the pipeline is full.
+     *
+     * @param sender, the agent sending the message.
+     * @param receiver, agent to send the message to.
+     * @param msg, Message to send.
+     * @param cipher, cipher used for encryption.
+     * @return a future completed with the delivery status.
+     * @throws InterruptedException if interrupted while waiting for room.
+     */
+    public CompletableFuture<DeliveryStatus> submit(SecretAgent sender, SecretAgent receiver, Message msg,
+                                                    MessageCipher cipher) throws InterruptedException {
+        Delivery delivery = new Delivery(sender, receiver, msg, cipher);
+        Metrics.recorder().sent();
+        closeLock.readLock().lock();
+        try {
+            if(closed) {
+                delivery.complete(DeliveryStatus.ROUTER_CLOSED);
+            } else {
+                validateQueue.put(delivery);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return delivery.future;
+    }
+
+    /**
+     * Submits a message for delivery without waiting.
+     * If the pipeline is full, the future is completed with QUEUE_FULL straight away.
+     *
+     * @param sender, the agent sending the message.
+     * @param receiver, agent to send the message to.
+     * @param msg, Message to send.
+     * @param cipher, cipher used for encryption.
+     * @return a future completed with the delivery status.
+     */
+    public CompletableFuture<DeliveryStatus> trySubmit(SecretAgent sender, SecretAgent receiver, Message msg,
+                                                       MessageCipher cipher) {
+        Delivery delivery = new Delivery(sender, receiver, msg, cipher);
+        Metrics.recorder().sent();
+        closeLock.readLock().lock();
+        try {
+            if(closed) {
+                delivery.complete(DeliveryStatus.ROUTER_CLOSED);
+            } else if(!validateQueue.offer(delivery)) {
+                delivery.complete(DeliveryStatus.QUEUE_FULL);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return delivery.future;
+    }
+
+    /**
+     * Stops accepting messages, waits for the messages already submitted to be delivered and stops the workers.
+     * If interrupted while waiting, the workers finish in the background.
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if(closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        try {
+            validateQueue.put(SHUTDOWN);
+            for(Thread worker : workers) {
+                worker.join();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stage one: the message must be from the sender and to the receiver.
+     */
+    private DeliveryStatus validate(Delivery delivery) {
+        return delivery.sender.checkParties(delivery.receiver, delivery.msg);
+    }
+
+    /**
+     * Stage two: the clearance policy must allow the message.
+     */
+    private DeliveryStatus checkClearance(Delivery delivery) {
+        return delivery.sender.checkClearance(delivery.receiver, delivery.msg);
+    }
+
+    /**
+     * Stage three: encrypt the message.
+     */
+    private DeliveryStatus encrypt(Delivery delivery) {
+        MetricsRecorder metrics = Metrics.recorder();
+        long start = metrics.startTimer();
+        if(!delivery.msg.encrypt(delivery.cipher, delivery.sender.getCompressor())) {
+            return DeliveryStatus.ENCRYPTION_FAILED;
+        }
+        metrics.encrypted(start);
+        return DeliveryStatus.DELIVERED;
+    }
+
+    /**
+     * Stage four: add the message to the receiver's inbox.
+     */
+    private DeliveryStatus deliver(Delivery delivery) {
+        if(!delivery.receiver.getInbox().receive(delivery.msg)) {
+            return DeliveryStatus.INBOX_FULL;
+        }
+        Metrics.recorder().delivered(delivery.startTime);
+        return DeliveryStatus.DELIVERED;
+    }
+
+    /**
+     * Starts daemon threads running a stage.
+     * Each thread takes deliveries from the input queue and passes those that pass the stage to the output queue
+     * (or completes them if there is no output queue). Deliveries that fail are completed with their status.
+     * When every thread of the stage has seen the shutdown marker, the marker is passed on to the output queue.
+     *
+     * @param name, the name of the stage.
+     * @param threads, the number of threads running the stage.
+     * @param input, the queue the stage takes deliveries from.
+     * @param output, the queue of the next stage, or null for the last stage.
+     * @param stage, the work done for each delivery.
+     */
+    private void startStage(String name, int threads, BlockingQueue<Delivery> input, BlockingQueue<Delivery> output,
+                            Function<Delivery, DeliveryStatus> stage) {
+        AtomicInteger running = new AtomicInteger(threads);
+        for(int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    Delivery delivery;
+                    while((delivery = input.take()) != SHUTDOWN) {
+                        DeliveryStatus status;
+                        try {
+                            status = stage.apply(delivery);
+                        } catch(RuntimeException e) {
+                            delivery.future.completeExceptionally(e);
+                            continue;
+                        }
+
+                        if(status == DeliveryStatus.DELIVERED && output != null) {
+                            output.put(delivery);
+                        } else {
+                            delivery.complete(status);
+                        }
+                    }
+
+                    //Pass the marker to the other threads of this stage first, then to the next stage.
+                    if(running.decrementAndGet() > 0) {
+                        input.put(SHUTDOWN);
+                    } else if(output != null) {
+                        output.put(SHUTDOWN);
+                    }
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "router-" + name + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * A message on its way through the pipeline, with the future for its outcome.
+     */
+    private static class Delivery {
+        private final SecretAgent sender;
+        private final SecretAgent receiver;
+        private final Message msg;
+        private final MessageCipher cipher;
+        private final CompletableFuture<DeliveryStatus> future = new CompletableFuture<>();
+        private final long startTime = Metrics.recorder().startTimer();
+
+        Delivery(SecretAgent sender, SecretAgent receiver, Message msg, MessageCipher cipher) {
+            this.sender = sender;
+            this.receiver = receiver;
+            this.msg = msg;
+            this.cipher = cipher;
+        }
+
+        /**
+         * Completes the future, recording the status if the message was not delivered.
+         *
+         * @param status, the outcome of the delivery.
+         */
+        void complete(DeliveryStatus status) {
+            if(status != DeliveryStatus.DELIVERED) {
+                Metrics.recorder().rejected(status);
+            }
+            future.complete(status);
+        }
+    }
+}
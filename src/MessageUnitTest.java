@@ -0,0 +1,250 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit test class for the message class.
+ *
+ * Author: Fatima Navid
+ */
+public class MessageUnitTest {
+    public static void main(String[] args) throws IOException {
+        testEncryptAndDecrypt();
+        System.out.println(" ");
+
+        testArrayViews();
+        System.out.println(" ");
+
+        testAeadCiphers();
+        System.out.println(" ");
+
+        testCodec();
+        System.out.println(" ");
+
+        testStreamingBody();
+        System.out.println(" ");
+
+        testCaesarShift();
+        System.out.println(" ");
+
+        testCompression();
+    }
+
+    /**
+     * Tests that a message encrypted and decrypted with the same key gets its content back.
+     */
+    public static void testEncryptAndDecrypt() {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+        Message message = new Message(a1, a2, "Hello");
+
+        message.encrypt(3);
+        System.out.println("Expected output: Khoor");
+        System.out.println("Actual output: " + message.getContent());
+
+        message.decrypt(3);
+        System.out.println("Expected output: Hello");
+        System.out.println("Actual output: " + message.getContent());
+    }
+
+    /**
+     * Tests the formatting of the encoded, encrypted and decrypted views.
+     */
+    public static void testArrayViews() {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+        Message message = new Message(a1, a2, "Hi");
+
+        System.out.println("Expected output: <not encoded>, <not encrypted>, <not decrypted>");
+        System.out.println("Actual output: " + message.getEncoded() + ", " + message.getEncrypted()
+                + ", " + message.getDecrypted());
+
+        message.encrypt(1);
+        message.decrypt(1);
+        System.out.println("Expected output: encoded: [72][105], encrypted: [73][106], decrypted: [72][105]");
+        System.out.println("Actual output: " + message.getEncoded() + ", " + message.getEncrypted()
+                + ", " + message.getDecrypted());
+
+        //Encrypting twice keeps the encoded view of the original content.
+        Message twice = new Message(a1, a2, "Hi");
+        twice.encrypt(1);
+        twice.encrypt(new AesGcmCipher(new byte[16]));
+        System.out.println("Expected output: encoded: [72][105], <not decrypted>");
+        System.out.println("Actual output: " + twice.getEncoded() + ", " + twice.getDecrypted());
+    }
+
+    /**
+     * Tests that the AES-GCM and ChaCha20-Poly1305 ciphers decrypt what they encrypt, and reject a wrong key.
+     */
+    public static void testAeadCiphers() {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+        byte[] key = new byte[32];
+        byte[] wrongKey = new byte[32];
+        wrongKey[0] = 1;
+
+        Message aes = new Message(a1, a2, "Meet at noon");
+        aes.encrypt(new AesGcmCipher(key));
+        aes.decrypt(new AesGcmCipher(key));
+        System.out.println("Expected output: Meet at noon");
+        System.out.println("Actual output: " + aes.getContent());
+
+        Message chaCha = new Message(a1, a2, "Meet at noon");
+        chaCha.encrypt(new ChaCha20Cipher(key));
+        System.out.println("Expected output: Decryption failed.");
+        System.out.print("Actual output: ");
+        chaCha.decrypt(new ChaCha20Cipher(wrongKey));
+        chaCha.decrypt(new ChaCha20Cipher(key));
+        System.out.println("Expected output: Meet at noon");
+        System.out.println("Actual output: " + chaCha.getContent());
+    }
+
+    /**
+     * Tests that a message encoded with the binary codec decodes to the same message.
+     */
+    public static void testCodec() {
+        Agent a1 = new Agent("Jane", "Alpha");
+        Agent a2 = new Agent("John", "Beta");
+        Message message = new Message(a1, a2, "Hello", Clearance.LEVEL_2);
+        message.encrypt(1000);
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        int written = MessageCodec.encode(message, buffer);
+        buffer.flip();
+        Message decoded = MessageCodec.decode(buffer, id -> id == a1.getAgentID() ? a1 : id == a2.getAgentID() ? a2 : null);
+        decoded.decrypt(1000);
+
+        System.out.println("Expected output: " + MessageCodec.encodedLength(message) + ", Jane, John, LEVEL_2, Hello");
+        System.out.println("Actual output: " + written + ", " + decoded.getFrom().getAgentName() + ", "
+                + decoded.getTo().getAgentName() + ", " + decoded.getSecrecy() + ", " + decoded.getContent());
+
+        //Only messages with a key ID (or compressed ones) need version 2 of the format.
+        message.setKeyID(7);
+        ByteBuffer tagged = ByteBuffer.allocate(64);
+        MessageCodec.encode(message, tagged);
+        tagged.flip();
+        byte taggedVersion = tagged.get(0);
+        Message decodedTagged = MessageCodec.decode(tagged, id -> id == a1.getAgentID() ? a1 : a2);
+        System.out.println("Expected output: 1, 2, 7");
+        System.out.println("Actual output: " + buffer.get(0) + ", " + taggedVersion + ", " + decodedTagged.getKeyID());
+    }
+
+    /**
+     * Tests that a large body sent through a secret agent is stored encrypted and streams back to the same bytes.
+     */
+    public static void testStreamingBody() throws IOException {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+        byte[] payload = new byte[3 * MessageBody.CHUNK_SIZE + 123];
+        new Random(7).nextBytes(payload);
+        AesGcmCipher cipher = new AesGcmCipher(new byte[16]);
+
+        Path store = Files.createTempFile("body", ".enc");
+        Message message = new Message(jane, john, "report.pdf");
+        message.setBody(new MessageBody(new ByteArrayInputStream(payload), store));
+        jane.send(john, message, cipher);
+
+        Message received = john.getInbox().read();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length = received.getBody().decryptTo(cipher, out);
+        received.decrypt(cipher);
+        System.out.println("Expected output: report.pdf, " + payload.length + ", true, true");
+        System.out.println("Actual output: " + received.getContent() + ", " + length + ", "
+                + Arrays.equals(payload, out.toByteArray()) + ", " + (Files.size(store) > payload.length));
+
+        //A store cut off in the middle of a record is rejected, not decrypted from a partial record.
+        try (FileChannel truncating = FileChannel.open(store, StandardOpenOption.WRITE)) {
+            truncating.truncate(Files.size(store) - 10);
+        }
+        System.out.println("Expected output: Body is incomplete.");
+        System.out.print("Actual output: ");
+        long truncatedLength = received.getBody().decryptTo(cipher, new ByteArrayOutputStream());
+        System.out.println("Expected output: -1");
+        System.out.println("Actual output: " + truncatedLength);
+        received.getBody().deleteStore();
+    }
+
+    /**
+     * Tests that caesar shifts give the same result as the scalar loops, whether or not they are vectorized.
+     */
+    public static void testCaesarShift() {
+        Random random = new Random(11);
+        char[] characters = new char[1000 + 7];
+        for(int i = 0; i < characters.length; i++) {
+            characters[i] = (char) random.nextInt(Character.MAX_VALUE + 1);
+        }
+        String text = new String(characters);
+        new ScalarCaesarShifter().shift(characters, characters.length, 40000);
+
+        byte[] bytes = new byte[1000 + 7];
+        random.nextBytes(bytes);
+        ByteBuffer shifted = ByteBuffer.allocateDirect(bytes.length);
+        new CaesarCipher(-3).encrypt(ByteBuffer.wrap(bytes), shifted);
+        boolean bytesMatch = shifted.position() == bytes.length;
+        for(int i = 0; i < bytes.length; i++) {
+            bytesMatch &= shifted.get(i) == (byte) (bytes[i] - 3);
+        }
+
+        System.out.println("Expected output: true, true");
+        System.out.println("Actual output: " + CaesarCipher.shift(text, 40000).equals(new String(characters)) + ", "
+                + bytesMatch);
+    }
+
+    /**
+     * Tests that long messages are compressed before encryption and restored on decryption, also after the codec,
+     * and that short messages are left uncompressed.
+     */
+    public static void testCompression() throws IOException {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+        jane.setCompressor(MessageCompressor.DEFAULT);
+        AesGcmCipher cipher = new AesGcmCipher(new byte[16]);
+        StringBuilder briefing = new StringBuilder();
+        for(int i = 0; i < 100; i++) {
+            briefing.append("Sector ").append(i % 4).append(": no activity reported. ");
+        }
+
+        jane.send(john, new Message(jane, john, "Short"), cipher);
+        jane.send(john, new Message(jane, john, briefing.toString()), cipher);
+        Message large = john.getInbox().read();
+        Message small = john.getInbox().read();
+        Message plain = new Message(jane, john, briefing.toString());
+        plain.encode();
+        System.out.println("Expected output: true");
+        System.out.println("Actual output: " + large.getEncoded().equals(plain.getEncoded()));
+
+        System.out.println("Expected output: true, false, true");
+        System.out.println("Actual output: " + large.isCompressed() + ", " + small.isCompressed() + ", "
+                + (large.getContent().length() < briefing.length() / 4));
+
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.encodedLength(large));
+        MessageCodec.encode(large, buffer);
+        buffer.flip();
+        Message decoded = MessageCodec.decode(buffer, id -> id == jane.getAgentID() ? jane : john);
+        decoded.decrypt(cipher);
+        small.decrypt(cipher);
+        System.out.println("Expected output: true, Short");
+        System.out.println("Actual output: " + decoded.getContent().equals(briefing.toString()) + ", "
+                + small.getContent());
+
+        //A compressed message spilled to disk and read back still decompresses.
+        try (MessageLog log = new MessageLog(Files.createTempDirectory("spill"))) {
+            john.setInbox(new BoundedInbox(1, Long.MAX_VALUE, OverflowPolicy.SPILL_TO_DISK,
+                    new InboxMemoryBudget(Long.MAX_VALUE), log));
+            jane.send(john, new Message(jane, john, briefing.toString()), cipher);
+            jane.send(john, new Message(jane, john, "Short"), cipher);
+            john.getInbox().read();
+            Message restored = john.getInbox().read();
+            restored.decrypt(cipher);
+            System.out.println("Expected output: true");
+            System.out.println("Actual output: " + restored.getContent().equals(briefing.toString()));
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark suite for the messaging hot paths: message encoding and encryption, inbox operations
+ * at different depths, and sending and decrypting through secret agents.
+ *
+ * Each benchmark is run for a number of warm up rounds and then measured rounds.
+ * Every round prepares its data first (not timed) and then runs a fixed number of operations (timed).
+ * The median time per operation and the bytes allocated per operation are printed for each benchmark.
+ *
+ * Usage: java MessagingBenchmark [name filter]
+ * Compile src-vector and run with --add-modules jdk.incubator.vector to compare the vectorized caesar shift
+ * with the scalar one.
+ *
+ * Author: Fatima Navid
+ */
+public class MessagingBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final int[] INBOX_DEPTHS = {100, 10000, 100000};
+
+    /**
+     * Results are added here so the JIT compiler can't remove the work being measured.
+     */
+    private static volatile long sink;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static String filter = "";
+
+    public static void main(String[] args) {
+        if(args.length > 0) {
+            filter = args[0];
+        }
+
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+        String content = "Meet at the safe house at noon. ".repeat(32);
+
+        cipherBenchmarks();
+        messageBenchmarks(jane, john, content);
+        inboxBenchmarks(jane, john);
+        secretAgentBenchmarks(jane, john, content);
+    }
+
+    /**
+     * Benchmarks for the caesar shift loops on long payloads: the scalar loops against the loops CaesarCipher uses,
+     * which are vectorized when the JDK Vector API is available.
+     */
+    private static void cipherBenchmarks() {
+        int length = 1 << 20;
+        int ops = 100;
+        String text = "Meet at the safe house at noon. ".repeat(length / 32);
+        char[] characters = new char[length];
+        ByteBuffer input = ByteBuffer.allocateDirect(length);
+        ByteBuffer output = ByteBuffer.allocateDirect(length);
+        CaesarCipher cipher = new CaesarCipher(3);
+        CaesarShifter scalar = new ScalarCaesarShifter();
+        String shifter = CaesarCipher.isVectorized() ? "vector" : "scalar";
+
+        run("Caesar chars 1MiB scalar", ops, () -> () -> {
+            for(int i = 0; i < ops; i++) {
+                text.getChars(0, length, characters, 0);
+                scalar.shift(characters, length, 3);
+            }
+            sink += characters[0];
+        });
+
+        run("Caesar chars 1MiB " + shifter, ops, () -> () -> {
+            for(int i = 0; i < ops; i++) {
+                text.getChars(0, length, characters, 0);
+                CaesarCipher.shifter().shift(characters, length, 3);
+            }
+            sink += characters[0];
+        });
+
+        run("Caesar bytes 1MiB scalar", ops, () -> () -> {
+            for(int i = 0; i < ops; i++) {
+                scalar.shift(input.clear(), output.clear(), 3);
+            }
+            sink += output.get(0);
+        });
+
+        run("Caesar bytes 1MiB " + shifter, ops, () -> () -> {
+            for(int i = 0; i < ops; i++) {
+                cipher.encrypt(input.clear(), output.clear());
+            }
+            sink += output.get(0);
+        });
+    }
+
+    /**
+     * Benchmarks for Message: encode, encrypt, decrypt, formatContent and output.
+     */
+    private static void messageBenchmarks(Agent from, Agent to, String content) {
+        int ops = 10000;
+        int[] codes = content.chars().toArray();
+
+        run("Message.encode", ops, () -> {
+            Message message = new Message(from, to, content);
+            return () -> {
+                for(int i = 0; i < ops; i++) {
+                    message.encode();
+                }
+                sink += message.getContent().length();
+            };
+        });
+
+        run("Message.encrypt", ops, () -> {
+            Message[] messages = newMessages(from, to, content, ops);
+            return () -> {
+                for(Message message : messages) {
+                    message.encrypt(3);
+                }
+            };
+        });
+
+        run("Message.decrypt", ops, () -> {
+            Message[] messages = newMessages(from, to, content, ops);
+            for(Message message : messages) {
+                message.encrypt(3);
+            }
+            return () -> {
+                for(Message message : messages) {
+                    message.decrypt(3);
+                }
+            };
+        });
+
+        run("Message.formatContent", ops, () -> {
+            Message message = new Message(from, to, content);
+            return () -> {
+                for(int i = 0; i < ops; i++) {
+                    sink += message.formatContent(codes).length();
+                }
+            };
+        });
+
+        run("Message.output", ops, () -> {
+            Message message = new Message(from, to, content);
+            return () -> {
+                for(int i = 0; i < ops; i++) {
+                    sink += message.output(codes).length();
+                }
+            };
+        });
+    }
+
+    /**
+     * Benchmarks for Inbox: receive, read and printAll at each inbox depth, and for OffHeapInbox receive and read.
+     */
+    private static void inboxBenchmarks(Agent from, Agent to) {
+        for(int depth : INBOX_DEPTHS) {
+            run("Inbox.receive depth " + depth, depth, () -> {
+                Inbox inbox = new Inbox();
+                Message[] messages = newMessages(from, to, "ping", depth);
+                return () -> {
+                    for(Message message : messages) {
+                        inbox.receive(message);
+                    }
+                };
+            });
+
+            run("Inbox.read depth " + depth, depth, () -> {
+                Inbox inbox = fullInbox(from, to, depth);
+                return () -> {
+                    for(int i = 0; i < depth; i++) {
+                        inbox.read();
+                    }
+                };
+            });
+
+            run("OffHeapInbox.receive depth " + depth, depth, () -> {
+                Inbox inbox = new OffHeapInbox(new MessageArena(1 << 20), id -> id == from.getAgentID() ? from : to);
+                Message[] messages = newMessages(from, to, "ping", depth);
+                return () -> {
+                    for(Message message : messages) {
+                        inbox.receive(message);
+                    }
+                };
+            });
+
+            run("OffHeapInbox.read depth " + depth, depth, () -> {
+                Inbox inbox = new OffHeapInbox(new MessageArena(1 << 20), id -> id == from.getAgentID() ? from : to);
+                for(Message message : newMessages(from, to, "ping", depth)) {
+                    inbox.receive(message);
+                }
+                return () -> {
+                    for(int i = 0; i < depth; i++) {
+                        inbox.read();
+                    }
+                };
+            });
+
+            run("Inbox.printAll depth " + depth, depth, () -> {
+                Inbox inbox = fullInbox(from, to, depth);
+                return () -> {
+                    //Console output is thrown away so the benchmark measures the inbox, not the terminal.
+                    PrintStream console = System.out;
+                    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                    try {
+                        inbox.printAll();
+                    } finally {
+                        System.setOut(console);
+                    }
+                };
+            });
+        }
+    }
+
+    /**
+     * Benchmarks for SecretAgent: send and decryptAll.
+     */
+    private static void secretAgentBenchmarks(SecretAgent sender, SecretAgent receiver, String content) {
+        int ops = 10000;
+        int[] keys = new int[ops];
+        Arrays.fill(keys, 3);
+
+        run("SecretAgent.send", ops, () -> {
+            receiver.setInbox(new Inbox());
+            Message[] messages = newMessages(sender, receiver, content, ops);
+            return () -> {
+                for(Message message : messages) {
+                    sender.send(receiver, message, 3);
+                }
+            };
+        });
+
+        run("SecretAgent.decryptAll", ops, () -> {
+            receiver.setInbox(new Inbox());
+            for(Message message : newMessages(sender, receiver, content, ops)) {
+                sender.send(receiver, message, 3);
+            }
+            return () -> receiver.decryptAll(keys);
+        });
+    }
+
+    /**
+     * Runs one benchmark and prints its results, if its name matches the filter.
+     *
+     * @param name, the name of the benchmark.
+     * @param ops, the number of operations each round runs.
+     * @param round, prepares the data for a round and returns the timed part of the round.
+     */
+    private static void run(String name, int ops, Supplier<Runnable> round) {
+        if(!name.contains(filter)) {
+            return;
+        }
+
+        for(int i = 0; i < WARMUP_ROUNDS; i++) {
+            round.get().run();
+        }
+
+        double[] nanosPerOp = new double[MEASURED_ROUNDS];
+        long allocated = 0;
+        for(int i = 0; i < MEASURED_ROUNDS; i++) {
+            Runnable timed = round.get();
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            timed.run();
+            nanosPerOp[i] = (System.nanoTime() - start) / (double) ops;
+            allocated += allocatedBytes() - bytesBefore;
+        }
+        Arrays.sort(nanosPerOp);
+
+        double median = nanosPerOp[MEASURED_ROUNDS / 2];
+        System.out.printf("%-32s %12.1f ns/op %14.0f ops/s %10.1f B/op%n", name, median, 1e9 / median,
+                allocated / (double) (ops * (long) MEASURED_ROUNDS));
+    }
+
+    /**
+     * Accessor for the number of bytes allocated by the current thread so far, or 0 if the JVM can't tell.
+     */
+    private static long allocatedBytes() {
+        if(THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Helper method to create messages with the same content.
+     */
+    private static Message[] newMessages(Agent from, Agent to, String content, int count) {
+        Message[] messages = new Message[count];
+        for(int i = 0; i < count; i++) {
+            messages[i] = new Message(from, to, content);
+        }
+        return messages;
+    }
+
+    /**
+     * Helper method to create an inbox holding the given number of messages.
+     */
+    private static Inbox fullInbox(Agent from, Agent to, int depth) {
+        Inbox inbox = new Inbox();
+        for(Message message : newMessages(from, to, "ping", depth)) {
+            inbox.receive(message);
+        }
+        return inbox;
+    }
+}
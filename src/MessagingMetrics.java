@@ -0,0 +1,181 @@
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics recorder that counts messages and times encryption and delivery.
+ * Counters for sent, delivered, decrypted and each rejection reason, latency histograms for encryption
+ * and delivery, and the inbox depth of each watched agent can be read directly or over JMX.
+ *
+ * Author: Fatima Navid
+ */
+public class MessagingMetrics implements MetricsRecorder, MessagingMetricsMXBean {
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder decrypted = new LongAdder();
+    private final Map<DeliveryStatus, LongAdder> rejected = new EnumMap<>(DeliveryStatus.class);
+    private final LatencyHistogram encryptTimes = new LatencyHistogram();
+    private final LatencyHistogram deliveryTimes = new LatencyHistogram();
+    private final ConcurrentMap<String, SecretAgent> watched = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor to create the counters for every rejection reason.
+     */
+    public MessagingMetrics() {
+        for(DeliveryStatus status : DeliveryStatus.values()) {
+            rejected.put(status, new LongAdder());
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, so they can be viewed with JMX tools.
+     *
+     * @param name, the name to register under.
+     * @return true if the metrics were registered.
+     */
+    public boolean registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("Agents:type=MessagingMetrics,name=" + ObjectName.quote(name)));
+            return true;
+        } catch(JMException e) {
+            System.out.println("Metrics could not be registered: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Adds an agent whose inbox depth is reported.
+     *
+     * @param agent, the agent to watch.
+     */
+    public void watchInbox(SecretAgent agent) {
+        watched.put(agent.getUID(), agent);
+    }
+
+    /**
+     * Stops reporting an agent's inbox depth.
+     *
+     * @param agent, the agent to stop watching.
+     */
+    public void unwatchInbox(SecretAgent agent) {
+        watched.remove(agent.getUID(), agent);
+    }
+
+    @Override
+    public long startTimer() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void sent() {
+        sent.increment();
+    }
+
+    @Override
+    public void rejected(DeliveryStatus reason) {
+        rejected.get(reason).increment();
+    }
+
+    @Override
+    public void encrypted(long startTime) {
+        encryptTimes.record(System.nanoTime() - startTime);
+    }
+
+    @Override
+    public void delivered(long startTime) {
+        delivered.increment();
+        deliveryTimes.record(System.nanoTime() - startTime);
+    }
+
+    @Override
+    public void decrypted() {
+        decrypted.increment();
+    }
+
+    @Override
+    public long getSent() {
+        return sent.sum();
+    }
+
+    @Override
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    @Override
+    public long getDecrypted() {
+        return decrypted.sum();
+    }
+
+    /**
+     * Accessor for the number of messages rejected for a reason.
+     *
+     * @param reason, the rejection reason.
+     * @return the number of rejected messages.
+     */
+    public long getRejected(DeliveryStatus reason) {
+        return rejected.get(reason).sum();
+    }
+
+    @Override
+    public Map<String, Long> getRejected() {
+        Map<String, Long> counts = new TreeMap<>();
+        for(Map.Entry<DeliveryStatus, LongAdder> entry : rejected.entrySet()) {
+            if(entry.getKey() != DeliveryStatus.DELIVERED) {
+                counts.put(entry.getKey().name(), entry.getValue().sum());
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public double getEncryptMeanNanos() {
+        return encryptTimes.getMean();
+    }
+
+    @Override
+    public long getEncryptP99Nanos() {
+        return encryptTimes.getPercentile(99);
+    }
+
+    @Override
+    public double getDeliveryMeanNanos() {
+        return deliveryTimes.getMean();
+    }
+
+    @Override
+    public long getDeliveryP99Nanos() {
+        return deliveryTimes.getPercentile(99);
+    }
+
+    /**
+     * Accessor for the inbox depth of each watched agent, by UID.
+     * Depths are read without stopping deliveries, so they may be slightly out of date.
+     */
+    @Override
+    public Map<String, Integer> getInboxDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        for(Map.Entry<String, SecretAgent> entry : watched.entrySet()) {
+            depths.put(entry.getKey(), entry.getValue().getInbox().approximateSize());
+        }
+        return depths;
+    }
+
+    /**
+     * Accessors for the latency histograms.
+     */
+    public LatencyHistogram getEncryptTimes() {
+        return encryptTimes;
+    }
+
+    public LatencyHistogram getDeliveryTimes() {
+        return deliveryTimes;
+    }
+}
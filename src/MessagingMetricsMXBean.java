@@ -0,0 +1,26 @@
+import java.util.Map;
+
+/**
+ * Management interface exposing messaging metrics over JMX.
+ *
+ * Author: Fatima Navid
+ */
+public interface MessagingMetricsMXBean {
+    long getSent();
+
+    long getDelivered();
+
+    long getDecrypted();
+
+    Map<String, Long> getRejected();
+
+    double getEncryptMeanNanos();
+
+    long getEncryptP99Nanos();
+
+    double getDeliveryMeanNanos();
+
+    long getDeliveryP99Nanos();
+
+    Map<String, Integer> getInboxDepths();
+}
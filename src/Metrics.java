@@ -0,0 +1,25 @@
+/**
+ * Holds the metrics recorder used by secret agents, inboxes and the message router.
+ * Metrics are off by default: the recorder does nothing and never reads the clock.
+ *
+ * Author: Fatima Navid
+ */
+public class Metrics {
+    private static volatile MetricsRecorder recorder = MetricsRecorder.NONE;
+
+    /**
+     * Accessor for the current recorder.
+     */
+    public static MetricsRecorder recorder() {
+        return recorder;
+    }
+
+    /**
+     * Sets the recorder, or turns metrics off if it is null.
+     *
+     * @param newRecorder, the recorder to use.
+     */
+    public static void setRecorder(MetricsRecorder newRecorder) {
+        recorder = newRecorder == null ? MetricsRecorder.NONE : newRecorder;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Interface for recording what happens when messages are sent, delivered and decrypted.
+ * Implementations must be safe to call from many threads at once.
+ *
+ * Timings are taken with startTimer and passed back when the operation finishes,
+ * so a recorder that doesn't keep timings can skip reading the clock altogether.
+ *
+ * Author: Fatima Navid
+ */
+public interface MetricsRecorder {
+    /**
+     * Recorder that ignores everything, used when metrics are turned off.
+     */
+    MetricsRecorder NONE = new MetricsRecorder() {
+        @Override
+        public long startTimer() {
+            return 0;
+        }
+
+        @Override
+        public void sent() {
+        }
+
+        @Override
+        public void rejected(DeliveryStatus reason) {
+        }
+
+        @Override
+        public void encrypted(long startTime) {
+        }
+
+        @Override
+        public void delivered(long startTime) {
+        }
+
+        @Override
+        public void decrypted() {
+        }
+    };
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return the start time to pass back when the operation finishes.
+     */
+    long startTimer();
+
+    /**
+     * Records that a message was sent to one receiver (before any checks).
+     */
+    void sent();
+
+    /**
+     * Records that a message was not delivered.
+     *
+     * @param reason, the status explaining why.
+     */
+    void rejected(DeliveryStatus reason);
+
+    /**
+     * Records that a message was encrypted.
+     *
+     * @param startTime, the value startTimer returned before encrypting.
+     */
+    void encrypted(long startTime);
+
+    /**
+     * Records that a message was added to the receiver's inbox.
+     *
+     * @param startTime, the value startTimer returned when the send started.
+     */
+    void delivered(long startTime);
+
+    /**
+     * Records that a message was decrypted by its receiver.
+     */
+    void decrypted();
+}
@@ -0,0 +1,351 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.LongPredicate;
+
+/**
+ * Inbox that keeps its messages off the Java heap, in a message arena, for agents holding very many messages.
+ * Each message is stored as a record encoded with MessageCodec, and the records of an inbox are linked
+ * (recent to oldest and back) by their arena offsets, so the inbox itself only holds a few numbers.
+ *
+ * Messages are copied out of the arena whenever they are returned (by read, getRecent, iteration or queries).
+ * A copy remembers its inbox and record, so it can be passed back to delete.
+ * Changes to a returned message, such as decrypting it, are not stored, so messages should be read before
+ * they are decrypted (SecretAgent.decryptAll refuses this inbox for that reason).
+ * Only what MessageCodec encodes is kept: cipher views and message bodies are dropped.
+ * Queries check the record headers one by one instead of following indexes.
+ *
+ * Author: Fatima Navid
+ */
+public class OffHeapInbox extends Inbox {
+    private static final long NONE = -1;
+
+    /**
+     * Record layout: links to the older and newer records, sequence number (-1 once freed), receive time,
+     * sender agent ID, secrecy (0xFF for none), the ID of the inbox holding it,
+     * then the length of the encoded message and the encoded message.
+     */
+    private static final int OLDER = 0;
+    private static final int NEWER = 8;
+    private static final int SEQUENCE = 16;
+    private static final int RECEIVED_AT = 24;
+    private static final int FROM_ID = 32;
+    private static final int SECRECY = 36;
+    private static final int OWNER = 40;
+    private static final int FRAME_LENGTH = 44;
+    private static final int FRAME = 48;
+    private static final int NO_SECRECY = 0xFF;
+
+    /**
+     * IDs for inboxes, so a record in an arena shared by many inboxes can be checked against its owner.
+     */
+    private static final AtomicInteger NEXT_INBOX_ID = new AtomicInteger();
+
+    private final int inboxID = NEXT_INBOX_ID.getAndIncrement();
+    private final MessageArena arena;
+    private final IntFunction<Agent> agents;
+    private long recent = NONE;
+    private long oldest = NONE;
+    private int size;
+    private long nextSequence;
+    private long lastReceivedAt;
+
+    /**
+     * Constructor for an off-heap inbox.
+     *
+     * @param arena, the arena to store messages in, which can be shared by many inboxes.
+     * @param agents, looks up the sender and receiver of a stored message by agent ID.
+     */
+    public OffHeapInbox(MessageArena arena, IntFunction<Agent> agents) {
+        this.arena = arena;
+        this.agents = agents;
+    }
+
+    /**
+     * Method to store a message in the inbox as the most recent one.
+     *
+     * @param message, message to add to the inbox.
+     * @return true if the message was stored, false if it is too large for the arena.
+     */
+    @Override
+    public boolean receive(Message message) {
+        int frameLength = MessageCodec.encodedLength(message);
+        long offset = arena.allocate(FRAME + frameLength);
+        if(offset < 0) {
+            return false;
+        }
+
+        lastReceivedAt = Math.max(lastReceivedAt, System.currentTimeMillis());
+        message.setReceived(nextSequence++, lastReceivedAt);
+
+        ByteBuffer chunk = arena.chunk(offset);
+        int position = MessageArena.position(offset);
+        chunk.putLong(position + OLDER, recent);
+        chunk.putLong(position + NEWER, NONE);
+        chunk.putLong(position + SEQUENCE, message.getSequence());
+        chunk.putLong(position + RECEIVED_AT, message.getReceivedAt());
+        chunk.putInt(position + FROM_ID, message.getFrom().getAgentID());
+        chunk.put(position + SECRECY, (byte) (message.getSecrecy() == null ? NO_SECRECY : message.getSecrecy().ordinal()));
+        chunk.putInt(position + OWNER, inboxID);
+        chunk.putInt(position + FRAME_LENGTH, frameLength);
+        MessageCodec.encode(message, chunk.slice(position + FRAME, frameLength));
+
+        if(recent != NONE) {
+            putLong(recent, NEWER, offset);
+        } else {
+            oldest = offset;   //First message in an empty inbox is also the oldest.
+        }
+        recent = offset;
+        size++;
+        return true;
+    }
+
+    /**
+     * Method to read messages from the inbox (recent to oldest).
+     * The message is copied out of the arena and its record is freed.
+     * If the message can't be copied out, the record is kept and null is returned.
+     *
+     * @return the most recent message received.
+     */
+    @Override
+    public Message read() {
+        if(recent == NONE) {
+            System.out.println("No message to read.");
+            return null;
+        }
+
+        long offset = recent;
+        Message message = materialize(offset);
+        if(message != null) {
+            unlink(offset);
+        }
+        return message;
+    }
+
+    /**
+     * Method to remove a message from the inbox. The record is found from the offset kept in the message,
+     * and is checked to still be this inbox's record for the message.
+     *
+     * @param message, a message returned by this inbox.
+     * @return true if the message was deleted, false if it isn't in this inbox.
+     */
+    @Override
+    public boolean delete(Message message) {
+        if(message == null || message.getInbox() != this || !holds(message.getStoreOffset(), message.getSequence())) {
+            System.out.println("Message not in inbox.");
+            return false;
+        }
+        unlink(message.getStoreOffset());
+        return true;
+    }
+
+    /**
+     * Helper method for delete to check that a record is still in this inbox with the given sequence number.
+     * Freed records have their sequence number cleared, so a deleted message is not found again.
+     *
+     * @param offset, the offset of the record.
+     * @param sequence, the sequence number of the message.
+     * @return true if the record holds the message.
+     */
+    private boolean holds(long offset, long sequence) {
+        return arena.chunk(offset).getInt(MessageArena.position(offset) + OWNER) == inboxID
+                && getLong(offset, SEQUENCE) == sequence;
+    }
+
+    /**
+     * Helper method to remove a record from the list and free its slot.
+     *
+     * @param offset, the offset of the record.
+     */
+    private void unlink(long offset) {
+        long older = getLong(offset, OLDER);
+        long newer = getLong(offset, NEWER);
+        if(newer != NONE) {
+            putLong(newer, OLDER, older);
+        } else {
+            recent = older;
+        }
+        if(older != NONE) {
+            putLong(older, NEWER, newer);
+        } else {
+            oldest = newer;
+        }
+        putLong(offset, SEQUENCE, NONE);
+        arena.free(offset, FRAME + arena.chunk(offset).getInt(MessageArena.position(offset) + FRAME_LENGTH));
+        size--;
+    }
+
+    /**
+     * Helper method to copy a message out of its record.
+     *
+     * @param offset, the offset of the record.
+     * @return the message, or null if its sender or receiver is unknown.
+     */
+    private Message materialize(long offset) {
+        ByteBuffer chunk = arena.chunk(offset);
+        int position = MessageArena.position(offset);
+        Message message = MessageCodec.decode(chunk.slice(position + FRAME, chunk.getInt(position + FRAME_LENGTH)), agents);
+        if(message != null) {
+            message.setReceived(chunk.getLong(position + SEQUENCE), chunk.getLong(position + RECEIVED_AT));
+            message.setInbox(this);
+            message.setStoreOffset(offset);
+        }
+        return message;
+    }
+
+    /**
+     * Helper methods to read and write the long fields of a record.
+     */
+    private long getLong(long offset, int field) {
+        return arena.chunk(offset).getLong(MessageArena.position(offset) + field);
+    }
+
+    private void putLong(long offset, int field, long value) {
+        arena.chunk(offset).putLong(MessageArena.position(offset) + field, value);
+    }
+
+    /**
+     * Returns an iterator over copies of the messages in the inbox (recent to oldest).
+     * Removing through the iterator deletes the message from the inbox.
+     *
+     * @return an iterator over the messages.
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        return new RecordIterator(offset -> true, offset -> false);
+    }
+
+    /**
+     * Index queries, which check the record headers as they go.
+     */
+    @Override
+    public Iterator<Message> fromSender(int agentID) {
+        return new RecordIterator(offset -> arena.chunk(offset).getInt(MessageArena.position(offset) + FROM_ID) == agentID,
+                offset -> false);
+    }
+
+    @Override
+    public Iterator<Message> withSecrecy(Clearance secrecy) {
+        int wanted = secrecy == null ? NO_SECRECY : secrecy.ordinal();
+        return new RecordIterator(offset -> (arena.chunk(offset).get(MessageArena.position(offset) + SECRECY) & 0xFF) == wanted,
+                offset -> false);
+    }
+
+    @Override
+    public Iterator<Message> sequenceBetween(long fromSequence, long toSequence) {
+        return new RecordIterator(offset -> getLong(offset, SEQUENCE) < toSequence,
+                offset -> getLong(offset, SEQUENCE) < fromSequence);
+    }
+
+    @Override
+    public Iterator<Message> receivedBetween(long fromTime, long toTime) {
+        return new RecordIterator(offset -> getLong(offset, RECEIVED_AT) < toTime,
+                offset -> getLong(offset, RECEIVED_AT) < fromTime);
+    }
+
+    /**
+     * Accessors for copies of the most recent and oldest message.
+     */
+    @Override
+    public Message getRecent() {
+        return recent == NONE ? null : materialize(recent);
+    }
+
+    @Override
+    public Message getOldest() {
+        return oldest == NONE ? null : materialize(oldest);
+    }
+
+    /**
+     * Copies the messages in the inbox into an array (recent to oldest).
+     *
+     * @return an array with a copy of every message in the inbox.
+     */
+    @Override
+    public Message[] toArray() {
+        Message[] messages = new Message[size];
+        int count = 0;
+        for(Message message : this) {
+            messages[count++] = message;
+        }
+        return count == size ? messages : Arrays.copyOf(messages, count);
+    }
+
+    /**
+     * Accessor for the number of messages in the inbox.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int approximateSize() {
+        return size;
+    }
+
+    /**
+     * Iterator over the records of the inbox (recent to oldest), copying out the messages of the records
+     * that match and stopping at the first record that meets the stop condition.
+     */
+    private class RecordIterator implements Iterator<Message> {
+        private final LongPredicate matches;
+        private final LongPredicate stop;
+        private long nextOffset;
+        private Message nextMessage;
+        private long lastReturned = NONE;
+
+        private RecordIterator(LongPredicate matches, LongPredicate stop) {
+            this.matches = matches;
+            this.stop = stop;
+            nextOffset = recent;
+            advance();
+        }
+
+        /**
+         * Moves to the next matching record that can be copied out.
+         */
+        private void advance() {
+            nextMessage = null;
+            while(nextMessage == null && nextOffset != NONE) {
+                if(stop.test(nextOffset)) {
+                    nextOffset = NONE;
+                } else if(matches.test(nextOffset)) {
+                    nextMessage = materialize(nextOffset);
+                }
+                if(nextMessage == null && nextOffset != NONE) {
+                    nextOffset = getLong(nextOffset, OLDER);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextMessage != null;
+        }
+
+        @Override
+        public Message next() {
+            if(nextMessage == null) {
+                throw new NoSuchElementException();
+            }
+            Message message = nextMessage;
+            lastReturned = nextOffset;
+            nextOffset = getLong(nextOffset, OLDER);
+            advance();
+            return message;
+        }
+
+        @Override
+        public void remove() {
+            if(lastReturned == NONE) {
+                throw new IllegalStateException();
+            }
+            unlink(lastReturned);
+            lastReturned = NONE;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * Enumerated data type to represent what a bounded inbox does with a new message when it is full.
+ *
+ * Author: Fatima Navid
+ */
+public enum OverflowPolicy {
+        DROP_OLDEST,    //Delete the oldest messages to make room.
+        REJECT_NEW,     //Refuse the new message, send reports INBOX_FULL.
+        SPILL_TO_DISK   //Move the oldest messages to a message log to make room.
+}
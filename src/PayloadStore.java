@@ -0,0 +1,70 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content addressed store of encrypted message payloads, shared by inboxes to avoid keeping
+ * identical payloads more than once. Payloads are looked up by their hash and compared by content,
+ * and every distinct payload is kept once with a count of the messages using it.
+ * A payload is dropped when its last message releases it.
+ * The store is safe to share between inboxes used from different threads.
+ *
+ * Author: Fatima Navid
+ */
+public class PayloadStore {
+    private final Map<String, Payload> payloads = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a reference to a payload, storing it if it isn't stored yet.
+     *
+     * @param payload, the payload text.
+     * @return the stored copy of the payload, to use instead of the one passed in.
+     */
+    public String acquire(String payload) {
+        return payloads.compute(payload, (text, stored) -> {
+            if(stored == null) {
+                return new Payload(text);
+            }
+            stored.references++;
+            return stored;
+        }).text;
+    }
+
+    /**
+     * Removes a reference to a payload, dropping the payload when nothing refers to it.
+     *
+     * @param payload, the payload text.
+     */
+    public void release(String payload) {
+        payloads.computeIfPresent(payload, (text, stored) -> --stored.references == 0 ? null : stored);
+    }
+
+    /**
+     * Accessor for the number of references to a payload.
+     *
+     * @param payload, the payload text.
+     * @return the number of messages using the payload, or 0 if it isn't stored.
+     */
+    public int getReferences(String payload) {
+        Payload stored = payloads.get(payload);
+        return stored == null ? 0 : stored.references;
+    }
+
+    /**
+     * Accessor for the number of distinct payloads stored.
+     */
+    public int size() {
+        return payloads.size();
+    }
+
+    /**
+     * A stored payload and the number of messages using it. Only changed inside the map's compute methods.
+     */
+    private static class Payload {
+        private final String text;
+        private int references = 1;
+
+        private Payload(String text) {
+            this.text = text;
+        }
+    }
+}
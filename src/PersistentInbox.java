@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Inbox that stores its messages in a message log, so they survive a restart.
+ * Received messages are appended to the log and removed messages are recorded with a delete marker.
+ * Creating the inbox replays the log to recover the messages still addressed to its owner.
+ *
+ * Author: Fatima Navid
+ */
+public class PersistentInbox extends Inbox {
+    private final MessageLog log;
+    private final Agent owner;
+
+    /**
+     * Log offset of every message in the inbox.
+     */
+    private final Map<Message, Long> offsets = new IdentityHashMap<>();
+
+    /**
+     * Constructor for an inbox stored in a log.
+     * Messages addressed to the owner that haven't been deleted are recovered from the log, oldest first.
+     * Messages from senders the resolver doesn't know are skipped.
+     *
+     * @param log, the log to store messages in.
+     * @param owner, the agent the inbox belongs to.
+     * @param senders, looks up the sender of a stored message by UID.
+     */
+    public PersistentInbox(MessageLog log, Agent owner, Function<String, Agent> senders) {
+        this.log = log;
+        this.owner = owner;
+        recover(senders);
+    }
+
+    /**
+     * Method to add a message to the inbox and append it to the log.
+     * If the message can't be stored, it is not added and an error message is printed.
+     *
+     * @param message, message to add to the inbox.
+     * @return true if the message was stored and added.
+     */
+    @Override
+    public boolean receive(Message message) {
+        long offset;
+        try {
+            offset = log.append(message);
+        } catch(IOException e) {
+            System.out.println("Message could not be stored: " + e.getMessage());
+            return false;
+        }
+        if(offset < 0) {
+            return false;
+        }
+
+        offsets.put(message, offset);
+        return super.receive(message);
+    }
+
+    /**
+     * Method to remove a message from the inbox and record the removal in the log.
+     *
+     * @param message, the message to delete from the inbox.
+     * @return true if the message was deleted.
+     */
+    @Override
+    public boolean delete(Message message) {
+        if(!super.delete(message)) {
+            return false;
+        }
+
+        Long offset = offsets.remove(message);
+        if(offset != null) {
+            try {
+                log.appendDelete(offset);
+            } catch(IOException e) {
+                System.out.println("Delete could not be stored: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays the log, adding every message for the owner that hasn't been deleted.
+     *
+     * @param senders, looks up the sender of a stored message by UID.
+     */
+    private void recover(Function<String, Agent> senders) {
+        Set<Long> deleted = new HashSet<>();
+        log.replay(offset -> {
+            MessageRecord record = log.read(offset);
+            if(!record.isMessage()) {
+                deleted.add(record.getDeletedOffset());
+            }
+        });
+
+        String ownerUID = owner.getUID();
+        log.replay(offset -> {
+            if(deleted.contains(offset)) {
+                return;
+            }
+            MessageRecord record = log.read(offset);
+            if(!record.isMessage() || !record.getReceiverUID().equals(ownerUID)) {
+                return;
+            }
+
+            Agent sender = senders.apply(record.getSenderUID());
+            if(sender == null) {
+                System.out.println("Unknown sender: " + record.getSenderUID());
+                return;
+            }
+
+            Message message = new Message(sender, owner, record.getContent(), record.getSecrecy());
+            if(record.isEncrypted()) {
+                message.setEncryptedContent(message.getContent());
+                message.setCompressed(record.isCompressed());
+            }
+            message.setKeyID(record.getKeyID());
+            offsets.put(message, offset);
+            super.receive(message);
+        });
+    }
+}
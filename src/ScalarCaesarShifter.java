@@ -0,0 +1,23 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Caesar shift loops that handle one character or byte at a time.
+ *
+ * Author: Fatima Navid
+ */
+class ScalarCaesarShifter implements CaesarShifter {
+    @Override
+    public void shift(char[] characters, int length, int key) {
+        for(int i = 0; i < length; i++) {
+            characters[i] = (char) (characters[i] + key);
+        }
+    }
+
+    @Override
+    public void shift(ByteBuffer input, ByteBuffer output, int key) {
+        int length = input.remaining();
+        for(int i = 0; i < length; i++) {
+            output.put((byte) (input.get() + key));
+        }
+    }
+}
@@ -1,3 +1,12 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * Subclass of agent used for every agent's private inbox.
  * Checks security clearance levels.
@@ -6,8 +15,24 @@
  */
 public class SecretAgent extends Agent {
     public static final int MAX_CLEARANCE_DIFFERENCE = 1;
+    public static final int DEFAULT_PARALLEL_DECRYPT_THRESHOLD = 1024;
     private Inbox inbox = new Inbox();
 
+    /**
+     * Smallest number of messages decrypted in parallel by decryptAll, also the size of each parallel chunk.
+     */
+    private int parallelDecryptThreshold = DEFAULT_PARALLEL_DECRYPT_THRESHOLD;
+
+    /**
+     * Rules used to check clearance levels when sending and decrypting.
+     */
+    private ClearancePolicy clearancePolicy = ClearancePolicy.STANDARD;
+
+    /**
+     * Compressor applied to messages before they are encrypted for sending, or null to send them uncompressed.
+     */
+    private MessageCompressor compressor;
+
     /**
      * Constructor for a SecretAgent with their name, code name and clearance level.
      * @param name, agent's name
@@ -26,28 +51,289 @@ public class SecretAgent extends Agent {
      * @param receiver, agent to send the message to.
      * @param msg, Message to send.
      * @param key, key for encryption.
+     * @return the outcome of the delivery.
+     */
+    public DeliveryStatus send(SecretAgent receiver, Message msg, int key) {
+        return send(receiver, msg, new CaesarCipher(key));
+    }
+
+    /**
+     * Method to encrypt messages with the cipher provided and send to receiver, if it passes 3 checks.
+     * The checks are the same as send with an int key.
+     *
+     * @param receiver, agent to send the message to.
+     * @param msg, Message to send.
+     * @param cipher, cipher used for encryption.
+     * @return the outcome of the delivery.
+     */
+    public DeliveryStatus send(SecretAgent receiver, Message msg, MessageCipher cipher) {
+        return send(receiver, msg, cipher, null);
+    }
+
+    /**
+     * Helper method for the send methods. When a key manager is given, the session cipher is only taken
+     * once the send has passed its checks, so a rejected message isn't tagged or counted against the session.
+     *
+     * @param receiver, agent to send the message to.
+     * @param msg, Message to send.
+     * @param cipher, cipher used for encryption, or null to use the session key.
+     * @param keys, the key manager holding the session keys, or null to use the cipher.
+     * @return the outcome of the delivery.
+     */
+    private DeliveryStatus send(SecretAgent receiver, Message msg, MessageCipher cipher, KeyManager keys) {
+        MetricsRecorder metrics = Metrics.recorder();
+        long start = metrics.startTimer();
+        metrics.sent();
+
+        DeliveryStatus status = checkSend(receiver, msg);
+        if(status != DeliveryStatus.DELIVERED) {
+            metrics.rejected(status);
+            System.out.println(status.getDescription());
+            return status;
+        }
+
+        if(keys != null) {
+            cipher = keys.sendingCipher(getAgentID(), receiver.getAgentID(), msg);
+        }
+
+        //Encrypts and sends the message
+        long encryptStart = metrics.startTimer();
+        if(!msg.encrypt(cipher, compressor)) {
+            metrics.rejected(DeliveryStatus.ENCRYPTION_FAILED);
+            return DeliveryStatus.ENCRYPTION_FAILED;
+        }
+        metrics.encrypted(encryptStart);
+
+        if(!receiver.getInbox().receive(msg)) {
+            metrics.rejected(DeliveryStatus.INBOX_FULL);
+            System.out.println(DeliveryStatus.INBOX_FULL.getDescription());
+            return DeliveryStatus.INBOX_FULL;
+        }
+        metrics.delivered(start);
+        return status;
+    }
+
+    /**
+     * Method to send a message encrypted with the current session key between this agent and the receiver.
+     * The message is tagged with the key ID, so the receiver can decrypt it with decryptAll(KeyManager).
+     * The checks are the same as send with an int key.
+     *
+     * @param receiver, agent to send the message to.
+     * @param msg, Message to send.
+     * @param keys, the key manager holding the session keys.
+     * @return the outcome of the delivery.
+     */
+    public DeliveryStatus send(SecretAgent receiver, Message msg, KeyManager keys) {
+        return send(receiver, msg, null, keys);
+    }
+
+    /**
+     * Method to send a message to a receiver looked up by agent ID.
+     * Prints an error message if no secret agent with the ID is registered,
+     * otherwise the message is sent the same way as send with a receiver.
+     *
+     * @param registry, the registry to look the receiver up in.
+     * @param receiverID, agent ID of the receiver.
+     * @param msg, Message to send.
+     * @param cipher, cipher used for encryption.
+     * @return the outcome of the delivery.
+     */
+    public DeliveryStatus send(AgentRegistry registry, int receiverID, Message msg, MessageCipher cipher) {
+        SecretAgent receiver = registry.findSecretAgent(receiverID);
+        if(receiver == null) {
+            Metrics.recorder().sent();
+            Metrics.recorder().rejected(DeliveryStatus.UNKNOWN_RECEIVER);
+            System.out.println(DeliveryStatus.UNKNOWN_RECEIVER.getDescription());
+            return DeliveryStatus.UNKNOWN_RECEIVER;
+        }
+        return send(receiver, msg, cipher);
+    }
+
+    /**
+     * Method to run the 3 checks for sending a message, without sending it.
+     *
+     * @param receiver, agent the message is for.
+     * @param msg, Message to check.
+     * @return DELIVERED if every check passes, otherwise the status of the first failed check.
+     */
+    public DeliveryStatus checkSend(SecretAgent receiver, Message msg) {
+        DeliveryStatus status = checkParties(receiver, msg);
+        return status == DeliveryStatus.DELIVERED ? checkClearance(receiver, msg) : status;
+    }
+
+    /**
+     * Method to check that the message is from this agent and to the receiver (checks one and two of send).
+     *
+     * @param receiver, agent the message is for.
+     * @param msg, Message to check.
+     * @return DELIVERED if both checks pass, otherwise the status of the failed check.
      */
-    public void send(SecretAgent receiver, Message msg, int key) {
+    public DeliveryStatus checkParties(SecretAgent receiver, Message msg) {
         // Check One: Sender and calling agent match.
-        //If the test is passed, move on to check two.
-        if(!(msg.getFrom().getAgentName().equals(getAgentName()))) {
-            System.out.println("Sender does not match.");
-        } else {
-            //Check Two: Receiver matches target agent
-            //If the test is passed, move on to check three.
-            if(!(msg.getTo().getAgentName().equals(receiver.getAgentName()))) {
-                System.out.println("Receiver does not match.");
-            } else {
-                // Check Three: Receiver can only be one security level clearance above sender max.
-                if(hierarchyVal(receiver.getAgentClearance()) > MAX_CLEARANCE_DIFFERENCE) {
-                    System.out.println("Sender has insufficient clearance.");
+        if(msg.getFrom().getAgentID() != getAgentID()) {
+            return DeliveryStatus.SENDER_MISMATCH;
+        }
+
+        //Check Two: Receiver matches target agent
+        if(msg.getTo().getAgentID() != receiver.getAgentID()) {
+            return DeliveryStatus.RECEIVER_MISMATCH;
+        }
+
+        return DeliveryStatus.DELIVERED;
+    }
+
+    /**
+     * Method to check the receiver's clearance against the clearance policy (check three of send).
+     *
+     * @param receiver, agent the message is for.
+     * @param msg, Message to check.
+     * @return DELIVERED if the policy allows the message, otherwise the reason it doesn't.
+     */
+    public DeliveryStatus checkClearance(SecretAgent receiver, Message msg) {
+        // Check Three: Receiver can only be as far above the sender as the clearance policy allows.
+        if(!clearancePolicy.canSend(getAgentClearance(), receiver.getAgentClearance())) {
+            return DeliveryStatus.INSUFFICIENT_CLEARANCE;
+        }
+
+        //The policy can also limit message secrecy to the receiver's clearance.
+        if(!clearancePolicy.canReceive(receiver.getAgentClearance(), msg.getSecrecy())) {
+            return DeliveryStatus.SECRECY_TOO_HIGH;
+        }
+
+        return DeliveryStatus.DELIVERED;
+    }
+
+    /**
+     * Method to send the same content to many receivers, encrypted with one caesar key.
+     *
+     * @param receivers, agents to send the message to.
+     * @param content, the content of the message.
+     * @param secrecy, the clearance level of the message.
+     * @param key, key for encryption.
+     * @return the outcome for every receiver.
+     */
+    public SendResult sendAll(Collection<SecretAgent> receivers, String content, Clearance secrecy, int key) {
+        return sendAll(receivers, content, secrecy, new CaesarCipher(key));
+    }
+
+    /**
+     * Method to send the same content to many receivers, encrypted with one cipher.
+     * The content is only encrypted once and the encrypted text is shared by every copy of the message.
+     *
+     * @param receivers, agents to send the message to.
+     * @param content, the content of the message.
+     * @param secrecy, the clearance level of the message.
+     * @param cipher, cipher used for encryption.
+     * @return the outcome for every receiver.
+     */
+    public SendResult sendAll(Collection<SecretAgent> receivers, String content, Clearance secrecy,
+                              MessageCipher cipher) {
+        Map<Clearance, MessageCipher> ciphers = new EnumMap<>(Clearance.class);
+        for(Clearance level : Clearance.values()) {
+            ciphers.put(level, cipher);
+        }
+        return sendAll(receivers, content, secrecy, ciphers);
+    }
+
+    /**
+     * Method to send the same content to many receivers, with a cipher for each receiver clearance level.
+     * Receivers are grouped by clearance, so the clearance check and encryption run once per group
+     * instead of once per receiver. Every receiver gets its own copy of the message sharing the encrypted text.
+     * Nothing is printed; the outcome for each receiver is returned instead.
+     *
+     * @param receivers, agents to send the message to.
+     * @param content, the content of the message.
+     * @param secrecy, the clearance level of the message.
+     * @param ciphers, cipher used for each receiver clearance level.
+     * @return the outcome for every receiver.
+     */
+    public SendResult sendAll(Collection<SecretAgent> receivers, String content, Clearance secrecy,
+                              Map<Clearance, MessageCipher> ciphers) {
+        //Group the receivers by clearance level.
+        Map<Clearance, List<SecretAgent>> groups = new EnumMap<>(Clearance.class);
+        for(SecretAgent receiver : receivers) {
+            groups.computeIfAbsent(receiver.getAgentClearance(), level -> new ArrayList<>()).add(receiver);
+        }
+        return sendToGroups(groups, content, secrecy, ciphers, null);
+    }
+
+    /**
+     * Helper method for sendAll and channels to send the same content to receivers already grouped by clearance.
+     *
+     * @param groups, the receivers for each clearance level.
+     * @param content, the content of the message.
+     * @param secrecy, the clearance level of the message.
+     * @param ciphers, cipher used for each receiver clearance level.
+     * @param channel, the name of the channel the message is published on, or null.
+     * @return the outcome for every receiver.
+     */
+    SendResult sendToGroups(Map<Clearance, ? extends Collection<SecretAgent>> groups, String content,
+                            Clearance secrecy, Map<Clearance, MessageCipher> ciphers, String channel) {
+        SendResult result = new SendResult();
+        MetricsRecorder metrics = Metrics.recorder();
+        long start = metrics.startTimer();
+
+        //Encrypt once per cipher, so clearance levels sharing a cipher share the encrypted text too.
+        Map<MessageCipher, Message> encryptedByCipher = new IdentityHashMap<>();
+        for(Map.Entry<Clearance, ? extends Collection<SecretAgent>> group : groups.entrySet()) {
+            DeliveryStatus status = DeliveryStatus.DELIVERED;
+            MessageCipher cipher = ciphers.get(group.getKey());
+            if(!clearancePolicy.canSend(getAgentClearance(), group.getKey())) {
+                status = DeliveryStatus.INSUFFICIENT_CLEARANCE;
+            } else if(!clearancePolicy.canReceive(group.getKey(), secrecy)) {
+                status = DeliveryStatus.SECRECY_TOO_HIGH;
+            } else if(cipher == null) {
+                status = DeliveryStatus.NO_KEY;
+            }
+
+            if(status != DeliveryStatus.DELIVERED) {
+                rejectAll(group.getValue(), status, result, metrics);
+                continue;
+            }
+
+            Message template = encryptedByCipher.get(cipher);
+            if(template == null) {
+                template = new Message(this, null, content, secrecy);
+                template.setChannel(channel);
+                long encryptStart = metrics.startTimer();
+                if(!template.encrypt(cipher, compressor)) {
+                    rejectAll(group.getValue(), DeliveryStatus.ENCRYPTION_FAILED, result, metrics);
+                    continue;
+                }
+                metrics.encrypted(encryptStart);
+                encryptedByCipher.put(cipher, template);
+            }
+
+            for(SecretAgent receiver : group.getValue()) {
+                metrics.sent();
+                if(receiver.getInbox().receive(template.copyFor(receiver))) {
+                    metrics.delivered(start);
+                    result.record(receiver, status);
                 } else {
-                    //Encrypts and sends the message
-                    msg.encrypt(key);
-                    receiver.getInbox().receive(msg);
+                    metrics.rejected(DeliveryStatus.INBOX_FULL);
+                    result.record(receiver, DeliveryStatus.INBOX_FULL);
                 }
             }
         }
+
+        return result;
+    }
+
+    /**
+     * Helper method for sendAll to record the same rejection for a group of receivers.
+     *
+     * @param receivers, the receivers the message was not delivered to.
+     * @param status, the reason it was not delivered.
+     * @param result, the result to record the outcome in.
+     * @param metrics, the metrics recorder.
+     */
+    private static void rejectAll(Collection<SecretAgent> receivers, DeliveryStatus status, SendResult result,
+                                  MetricsRecorder metrics) {
+        for(SecretAgent receiver : receivers) {
+            metrics.sent();
+            metrics.rejected(status);
+            result.record(receiver, status);
+        }
     }
 
     /**
@@ -57,36 +343,195 @@ public class SecretAgent extends Agent {
      * @param keys, array of integers used for decryption.
      */
     public void decryptAll(int[] keys) {
-        decryptAllRec(inbox.getRecent(), keys, 0);
+        decryptAll(caesarCiphers(keys));
     }
 
     /**
-     * Recursive method to decrypt all the messages in the inbox (recent to oldest).
+     * Method to decrypt all the messages in the inbox, using one cipher per message (recent to oldest).
+     * If insufficient ciphers are provided, only those messages are decrypted.
+     * Inboxes with at least parallelDecryptThreshold messages are decrypted in parallel on the common fork-join pool.
+     *
+     * @param ciphers, array of ciphers used for decryption.
+     */
+    public void decryptAll(MessageCipher[] ciphers) {
+        if(!canDecryptInPlace()) {
+            return;
+        }
+
+        //Snapshot the inbox so each message can be paired with its key by index.
+        Message[] messages = inbox.toArray();
+        decryptMessages(messages, ciphers, Math.min(messages.length, ciphers.length));
+
+        // If the keys are not enough, error message is printed.
+        if(messages.length > ciphers.length) {
+            System.out.println("Not enough keys supplied!");
+        }
+    }
+
+    /**
+     * Method to decrypt all the messages in the inbox with the session keys they were encrypted with.
+     * Each message's key is looked up from its sender, this agent and its key ID, so no keys need to be supplied.
+     * Messages without a key ID are skipped, and an error message is printed for each of them.
+     *
+     * @param keys, the key manager holding the session keys.
+     */
+    public void decryptAll(KeyManager keys) {
+        if(!canDecryptInPlace()) {
+            return;
+        }
+
+        Message[] messages = inbox.toArray();
+        MessageCipher[] ciphers = new MessageCipher[messages.length];
+        for(int i = 0; i < messages.length; i++) {
+            int keyID = messages[i].getKeyID();
+            if(keyID == Message.NO_KEY_ID) {
+                System.out.println("Message has no key ID.");
+            } else {
+                ciphers[i] = keys.cipher(messages[i].getFrom().getAgentID(), getAgentID(), keyID);
+            }
+        }
+        decryptMessages(messages, ciphers, messages.length);
+    }
+
+    /**
+     * Helper method for decryptAll to check that the inbox keeps the messages it hands out.
+     * An off-heap inbox only hands out copies, so decrypting them would change nothing and is refused
+     * with an error message. Its messages should be read and then decrypted.
+     *
+     * @return true if the messages in the inbox can be decrypted where they are.
+     */
+    private boolean canDecryptInPlace() {
+        if(inbox instanceof OffHeapInbox) {
+            System.out.println("Messages in an off-heap inbox must be read before they are decrypted.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Helper method for decryptAll to decrypt the first messages of a snapshot, pairing each message with
+     * the cipher at the same index. Runs in parallel if there are at least parallelDecryptThreshold messages.
+     *
+     * @param messages, the messages to decrypt.
+     * @param ciphers, the ciphers used for decryption (null to skip a message).
+     * @param count, the number of messages to decrypt.
+     */
+    private void decryptMessages(Message[] messages, MessageCipher[] ciphers, int count) {
+        if(count >= parallelDecryptThreshold) {
+            ForkJoinPool.commonPool().invoke(new DecryptTask(messages, ciphers, 0, count));
+        } else {
+            decryptRange(messages, ciphers, 0, count);
+        }
+    }
+
+    /**
+     * Method to decrypt all the messages in the inbox (recent to oldest), starting from a given message.
      * If insufficient keys are provided, an error message is printed.
+     * Walks the messages in a loop, so long inboxes don't run out of stack.
      *
-     * @param current, the message being decrypted.
+     * @param current, the first message to decrypt.
      * @param keys, array for the keys used in decryption.
      * @param index, int to keep track of the key being used for decryption.
      */
     public void decryptAllRec(Message current, int[] keys, int index) {
-        //Base case to stop recursion if no more messages are left in the inbox.
-        if(current == null) {
-            return;
+        decryptAllRec(current, caesarCiphers(keys), index);
+    }
+
+    /**
+     * Method to decrypt all the messages in the inbox (recent to oldest) with the ciphers provided,
+     * starting from a given message.
+     * If insufficient ciphers are provided, an error message is printed.
+     *
+     * @param current, the first message to decrypt.
+     * @param keys, array for the ciphers used in decryption.
+     * @param index, int to keep track of the cipher being used for decryption.
+     */
+    public void decryptAllRec(Message current, MessageCipher[] keys, int index) {
+        //Stop if no more messages are left in the inbox.
+        while(current != null) {
+            // If the keys are not enough, error message is printed and exits method.
+            if(index >= keys.length) {
+                System.out.println("Not enough keys supplied!");
+                return;
+            }
+
+            decryptIfCleared(current, keys[index]);
+            current = current.getNext();
+            index++;
         }
+    }
 
-        // If the keys are not enough, error message is printed and exits method.
-        if(index>=keys.length) {
-            System.out.println("Not enough keys supplied!");
-            return;
+    /**
+     * Decrypts a range of messages, pairing each message with the cipher at the same index.
+     *
+     * @param messages, the messages to decrypt.
+     * @param ciphers, the ciphers used for decryption.
+     * @param from, index of the first message to decrypt.
+     * @param to, index after the last message to decrypt.
+     */
+    private void decryptRange(Message[] messages, MessageCipher[] ciphers, int from, int to) {
+        for(int i = from; i < to; i++) {
+            decryptIfCleared(messages[i], ciphers[i]);
         }
+    }
 
-        //If the sender's clearance level is sufficient, decrypt the message.
-        if(!(hierarchyVal(current.getFrom().getAgentClearance()) > MAX_CLEARANCE_DIFFERENCE)) {
-            current.decrypt(keys[index]);
+    /**
+     * Decrypts a message if there is a cipher for it and the sender's clearance level is sufficient.
+     *
+     * @param message, the message to decrypt.
+     * @param cipher, the cipher used for decryption, or null to leave the message encrypted.
+     */
+    private void decryptIfCleared(Message message, MessageCipher cipher) {
+        if(cipher != null && clearancePolicy.canRead(getAgentClearance(), message.getFrom().getAgentClearance())
+                && message.decrypt(cipher)) {
+            Metrics.recorder().decrypted();
+        }
+    }
+
+    /**
+     * Fork-join task that splits a range of messages in half until it is below the threshold,
+     * then decrypts it on the current thread.
+     */
+    private class DecryptTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Message[] messages;
+        private final MessageCipher[] ciphers;
+        private final int from;
+        private final int to;
+
+        DecryptTask(Message[] messages, MessageCipher[] ciphers, int from, int to) {
+            this.messages = messages;
+            this.ciphers = ciphers;
+            this.from = from;
+            this.to = to;
         }
 
-        //Recursive call for the next message in inbox.
-        decryptAllRec(current.getNext(), keys, index+1);
+        @Override
+        protected void compute() {
+            if(to - from <= parallelDecryptThreshold) {
+                decryptRange(messages, ciphers, from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new DecryptTask(messages, ciphers, from, middle),
+                    new DecryptTask(messages, ciphers, middle, to));
+        }
+    }
+
+    /**
+     * Helper method to wrap integer keys in caesar ciphers.
+     *
+     * @param keys, array of integer keys.
+     * @return an array with a caesar cipher for each key.
+     */
+    private static MessageCipher[] caesarCiphers(int[] keys) {
+        MessageCipher[] ciphers = new MessageCipher[keys.length];
+        for(int i = 0; i < keys.length; i++) {
+            ciphers[i] = new CaesarCipher(keys[i]);
+        }
+        return ciphers;
     }
 
     /**
@@ -109,4 +554,37 @@ public class SecretAgent extends Agent {
     public void setInbox(Inbox inbox) {
         this.inbox = inbox;
     }
+
+    /**
+     * Getter and setter for the clearance policy.
+     */
+    public ClearancePolicy getClearancePolicy() {
+        return clearancePolicy;
+    }
+
+    public void setClearancePolicy(ClearancePolicy clearancePolicy) {
+        this.clearancePolicy = clearancePolicy;
+    }
+
+    /**
+     * Getter and setter for the parallel decryption threshold.
+     */
+    public int getParallelDecryptThreshold() {
+        return parallelDecryptThreshold;
+    }
+
+    public void setParallelDecryptThreshold(int parallelDecryptThreshold) {
+        this.parallelDecryptThreshold = Math.max(1, parallelDecryptThreshold);
+    }
+
+    /**
+     * Getter and setter for the compressor used on messages this agent sends.
+     */
+    public MessageCompressor getCompressor() {
+        return compressor;
+    }
+
+    public void setCompressor(MessageCompressor compressor) {
+        this.compressor = compressor;
+    }
 }
@@ -0,0 +1,376 @@
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test class for the secret agent class.
+ *
+ * Author: Fatima Navid
+ */
+public class SecretAgentUnitTest {
+    public static void main(String[] args) throws Exception {
+        testSend();
+        System.out.println(" ");
+
+        testSendAll();
+        System.out.println(" ");
+
+        testParallelDecryptAll();
+        System.out.println(" ");
+
+        testSendByID();
+        System.out.println(" ");
+
+        testClearancePolicy();
+        System.out.println(" ");
+
+        testMessageRouter();
+        System.out.println(" ");
+
+        testMetrics();
+        System.out.println(" ");
+
+        testShardedRouter();
+        System.out.println(" ");
+
+        testChannels();
+        System.out.println(" ");
+
+        testKeyManager();
+    }
+
+    /**
+     * Tests that send delivers an encrypted message and decryptAll restores it.
+     */
+    public static void testSend() {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+
+        DeliveryStatus status = jane.send(john, new Message(jane, john, "Hello"), 3);
+        System.out.println("Expected output: DELIVERED, Khoor");
+        System.out.println("Actual output: " + status + ", " + john.getInbox().getRecent().getContent());
+
+        john.decryptAll(new int[] {3});
+        System.out.println("Expected output: Hello");
+        System.out.println("Actual output: " + john.getInbox().getRecent().getContent());
+    }
+
+    /**
+     * Tests that sendAll delivers to receivers with enough clearance and reports the others.
+     */
+    public static void testSendAll() {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_1A);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_1B);
+        SecretAgent alice = new SecretAgent("Alice", "Gamma", Clearance.LEVEL_1A);
+        SecretAgent bob = new SecretAgent("Bob", "Delta", Clearance.LEVEL_3);
+
+        SendResult result = jane.sendAll(List.of(john, alice, bob), "Briefing", Clearance.LEVEL_1A, 1);
+        System.out.println("Expected output: 2 delivered, INSUFFICIENT_CLEARANCE, Csjfgjoh, Csjfgjoh");
+        System.out.println("Actual output: " + result.getDelivered() + " delivered, " + result.getStatus(bob)
+                + ", " + john.getInbox().getRecent().getContent() + ", " + alice.getInbox().getRecent().getContent());
+    }
+
+    /**
+     * Tests that a deep inbox is decrypted in parallel, and that missing keys are reported.
+     */
+    public static void testParallelDecryptAll() {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+        john.setParallelDecryptThreshold(100);
+
+        int[] keys = new int[50000];
+        for(int i = 0; i < keys.length; i++) {
+            jane.send(john, new Message(jane, john, "Hello"), 7);
+            keys[i] = 7;
+        }
+        jane.send(john, new Message(jane, john, "Hello"), 7);
+
+        System.out.println("Expected output: Not enough keys supplied!");
+        System.out.print("Actual output: ");
+        john.decryptAll(keys);
+        System.out.println("Expected output: Hello, Hello, Olssv");
+        System.out.println("Actual output: " + john.getInbox().getRecent().getContent() + ", "
+                + john.getInbox().getRecent().getNext().getContent() + ", " + john.getInbox().getOldest().getContent());
+    }
+
+    /**
+     * Tests looking agents up in a registry and sending to a receiver by agent ID.
+     */
+    public static void testSendByID() {
+        AgentRegistry registry = new AgentRegistry();
+        SecretAgent jane = registry.createSecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = registry.createSecretAgent("John", "Beta", Clearance.LEVEL_2);
+        registry.rename(john, "Omega");
+
+        System.out.println("Expected output: John, John, John, null");
+        System.out.println("Actual output: " + registry.findByID(john.getAgentID()).getAgentName() + ", "
+                + registry.findByUID(john.getUID()).getAgentName() + ", "
+                + registry.findByCodeName("Omega").getAgentName() + ", " + registry.findByCodeName("Beta"));
+
+        DeliveryStatus status = jane.send(registry, john.getAgentID(), new Message(jane, john, "Hi"),
+                new CaesarCipher(1));
+        System.out.println("Expected output: DELIVERED, Ij");
+        System.out.println("Actual output: " + status + ", " + john.getInbox().getRecent().getContent());
+    }
+
+    /**
+     * Tests the standard clearance policy and a policy that limits message secrecy.
+     */
+    public static void testClearancePolicy() {
+        ClearancePolicy standard = ClearancePolicy.STANDARD;
+        System.out.println("Expected output: true, false, true, true");
+        System.out.println("Actual output: " + standard.canSend(Clearance.LEVEL_1A, Clearance.LEVEL_1B) + ", "
+                + standard.canSend(Clearance.LEVEL_1A, Clearance.LEVEL_2) + ", "
+                + standard.canRead(Clearance.LEVEL_3, Clearance.LEVEL_1A) + ", "
+                + standard.canReceive(Clearance.LEVEL_1A, Clearance.LEVEL_3));
+
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_1B);
+        jane.setClearancePolicy(new ClearancePolicy(1, true));
+        System.out.println("Expected output: Message secrecy is above receiver's clearance.");
+        System.out.print("Actual output: ");
+        jane.send(john, new Message(jane, john, "Top secret", Clearance.LEVEL_3), 1);
+    }
+
+    /**
+     * Tests that the message router delivers submitted messages and reports rejected ones.
+     */
+    public static void testMessageRouter() throws Exception {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_1A);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_1B);
+        SecretAgent bob = new SecretAgent("Bob", "Delta", Clearance.LEVEL_3);
+        john.setInbox(new ConcurrentInbox());
+
+        MessageRouter router = new MessageRouter(16, 4);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[1000];
+        for(int i = 0; i < futures.length; i++) {
+            futures[i] = router.submit(jane, john, new Message(jane, john, "Hello"), new CaesarCipher(1));
+        }
+        DeliveryStatus rejected = router.submit(jane, bob, new Message(jane, bob, "Hello"), new CaesarCipher(1)).get();
+        CompletableFuture.allOf(futures).get();
+        router.close();
+
+        System.out.println("Expected output: 1000, Ifmmp, INSUFFICIENT_CLEARANCE, ROUTER_CLOSED");
+        System.out.println("Actual output: " + john.getInbox().size() + ", " + john.getInbox().getRecent().getContent()
+                + ", " + rejected + ", "
+                + router.trySubmit(jane, john, new Message(jane, john, "Hello"), new CaesarCipher(1)).get());
+    }
+
+    /**
+     * Tests that sends, rejections and decryptions are counted when metrics are turned on.
+     */
+    public static void testMetrics() {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_1A);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_1A);
+        SecretAgent bob = new SecretAgent("Bob", "Delta", Clearance.LEVEL_3);
+        MessagingMetrics metrics = new MessagingMetrics();
+        metrics.watchInbox(john);
+        Metrics.setRecorder(metrics);
+
+        jane.send(john, new Message(jane, john, "first"), 1);
+        jane.send(john, new Message(jane, john, "second"), 1);
+        System.out.print("Rejected: ");
+        jane.send(bob, new Message(jane, bob, "third"), 1);
+        john.decryptAll(new int[] {1, 1});
+        Metrics.setRecorder(null);
+
+        System.out.println("Expected output: 3 sent, 2 delivered, 1 rejected, 2 decrypted, depth 2, 2 timed, true");
+        System.out.println("Actual output: " + metrics.getSent() + " sent, " + metrics.getDelivered() + " delivered, "
+                + metrics.getRejected(DeliveryStatus.INSUFFICIENT_CLEARANCE) + " rejected, "
+                + metrics.getDecrypted() + " decrypted, depth " + metrics.getInboxDepths().get(john.getUID())
+                + ", " + metrics.getEncryptTimes().getCount() + " timed, " + metrics.registerMBean("test"));
+    }
+
+    /**
+     * Tests that messages for another shard are batched and delivered, over the loopback and socket transports.
+     */
+    public static void testShardedRouter() throws Exception {
+        AgentRegistry registry = new AgentRegistry();
+        SecretAgent jane = registry.createSecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        int janeShard = ShardedRouter.shardOf(jane.getAgentID(), 2);
+        SecretAgent john = registry.createSecretAgent("John", "Beta", Clearance.LEVEL_2);
+        for(int i = 0; ShardedRouter.shardOf(john.getAgentID(), 2) == janeShard; i++) {
+            john = registry.createSecretAgent("John", "Beta " + i, Clearance.LEVEL_2);
+        }
+        int johnShard = 1 - janeShard;
+
+        LoopbackTransport loopback = new LoopbackTransport();
+        ShardedRouter janeNode = new ShardedRouter(2, janeShard, registry, loopback, 4096, 1000);
+        ShardedRouter johnNode = new ShardedRouter(2, johnShard, registry, loopback, 4096, 1000);
+        john.setInbox(new ConcurrentInbox());
+        MessagingMetrics metrics = new MessagingMetrics();
+        Metrics.setRecorder(metrics);
+        DeliveryStatus status = null;
+        for(int i = 0; i < 100; i++) {
+            status = janeNode.send(jane, john.getAgentID(), new Message(jane, john, "Hello"), new CaesarCipher(1));
+        }
+        janeNode.flush();
+        Metrics.setRecorder(null);
+        john.getInbox().getRecent().decrypt(1);
+        System.out.println("Expected output: FORWARDED, 1 batch, 100, Hello, 100 delivered");
+        System.out.println("Actual output: " + status + ", " + janeNode.getBatchesSent() + " batch, "
+                + john.getInbox().size() + ", " + john.getInbox().getRecent().getContent() + ", "
+                + metrics.getDelivered() + " delivered");
+
+        //Without a linger time, messages are sent straight away.
+        LoopbackTransport direct = new LoopbackTransport();
+        ShardedRouter immediate = new ShardedRouter(2, janeShard, registry, direct, 4096, 0);
+        ShardedRouter immediateReceiver = new ShardedRouter(2, johnShard, registry, direct, 4096, 0);
+        immediate.send(jane, john.getAgentID(), new Message(jane, john, "Now"), new CaesarCipher(1));
+        System.out.println("Expected output: 101, 1 batch");
+        System.out.println("Actual output: " + john.getInbox().size() + ", " + immediate.getBatchesSent() + " batch");
+        immediate.close();
+        immediateReceiver.close();
+
+        //Once closed, the router rejects messages instead of leaving them in a batch nobody sends.
+        System.out.println("Expected output: " + DeliveryStatus.ROUTER_CLOSED.getDescription());
+        System.out.print("Actual output: ");
+        status = immediate.send(jane, john.getAgentID(), new Message(jane, john, "Late"), new CaesarCipher(1));
+        System.out.println("Expected output: ROUTER_CLOSED, 101");
+        System.out.println("Actual output: " + status + ", " + john.getInbox().size());
+        janeNode.close();
+        johnNode.close();
+
+        InetSocketAddress anyPort = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        SocketTransport janeTransport = new SocketTransport(Map.of(janeShard, anyPort));
+        SocketTransport johnTransport = new SocketTransport(Map.of(johnShard, anyPort));
+        janeNode = new ShardedRouter(2, janeShard, registry, janeTransport, 4096, 1);
+        johnNode = new ShardedRouter(2, johnShard, registry, johnTransport, 4096, 1);
+        janeTransport.setAddress(johnShard, johnTransport.getAddress(johnShard));
+        john.setInbox(new ConcurrentInbox());
+        for(int i = 0; i < 1000; i++) {
+            janeNode.send(jane, john.getAgentID(), new Message(jane, john, "Hello " + i), new CaesarCipher(1));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while(john.getInbox().approximateSize() < 1000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        System.out.println("Expected output: 1000, true");
+        System.out.println("Actual output: " + john.getInbox().size() + ", " + (janeNode.getBatchesSent() < 1000));
+        janeNode.close();
+        johnNode.close();
+        janeTransport.close();
+        johnTransport.close();
+
+        //A receiver that fails on one frame doesn't stop the connection from delivering the next.
+        SocketTransport faulty = new SocketTransport(Map.of(0, anyPort));
+        AtomicInteger delivered = new AtomicInteger();
+        faulty.bind(0, frame -> {
+            if(frame.get(0) == 0) {
+                throw new IllegalStateException("bad frame");
+            }
+            delivered.incrementAndGet();
+        });
+        faulty.send(0, ByteBuffer.wrap(new byte[] {0}));
+        faulty.send(0, ByteBuffer.wrap(new byte[] {1}));
+        deadline = System.currentTimeMillis() + 5000;
+        while(delivered.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        System.out.println("Expected output: 1");
+        System.out.println("Actual output: " + delivered.get());
+
+        //Peers sending a negative or oversized frame length are disconnected, and other frames still arrive.
+        boolean[] disconnected = new boolean[2];
+        int[] lengths = {-1, SocketTransport.MAX_FRAME_LENGTH + 1};
+        for(int i = 0; i < lengths.length; i++) {
+            try (SocketChannel peer = SocketChannel.open(faulty.getAddress(0))) {
+                peer.write(ByteBuffer.allocate(8).putInt(0, lengths[i]));
+                disconnected[i] = peer.read(ByteBuffer.allocate(1)) < 0;
+            }
+        }
+        faulty.send(0, ByteBuffer.wrap(new byte[] {2}));
+        deadline = System.currentTimeMillis() + 5000;
+        while(delivered.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        System.out.println("Expected output: true, true, 2");
+        System.out.println("Actual output: " + disconnected[0] + ", " + disconnected[1] + ", " + delivered.get());
+        faulty.close();
+    }
+
+    /**
+     * Tests that a message published on a channel reaches cleared subscribers and shares one encrypted content.
+     */
+    public static void testChannels() {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+        SecretAgent bob = new SecretAgent("Bob", "Delta", Clearance.LEVEL_3);
+        SecretAgent mary = new SecretAgent("Mary", "Gamma", Clearance.LEVEL_1B);
+        jane.setClearancePolicy(new ClearancePolicy(1, true));
+        ChannelRegistry channels = new ChannelRegistry();
+        for(SecretAgent agent : List.of(jane, john, bob, mary)) {
+            channels.subscribe("ops", agent);
+        }
+
+        SendResult result = channels.publish("ops", jane, "Alert", Clearance.LEVEL_2, new CaesarCipher(1));
+        Message johnCopy = john.getInbox().getRecent();
+        Message bobCopy = bob.getInbox().getRecent();
+        System.out.println("Expected output: 2, SECRECY_TOO_HIGH, 0, true, ops");
+        System.out.println("Actual output: " + result.count(DeliveryStatus.DELIVERED) + ", " + result.getStatus(mary)
+                + ", " + jane.getInbox().size() + ", " + (johnCopy.getContent() == bobCopy.getContent()) + ", "
+                + johnCopy.getChannel());
+
+        //An agent without a clearance can't subscribe, and isn't found as a subscriber.
+        SecretAgent nobody = new SecretAgent("Nobody", "Omega", null);
+        System.out.println("Expected output: Agent has no clearance to subscribe with.");
+        System.out.print("Actual output: ");
+        boolean subscribed = channels.subscribe("ops", nobody);
+        System.out.println("Expected output: false, false, false, 4");
+        System.out.println("Actual output: " + subscribed + ", " + channels.find("ops").isSubscribed(nobody) + ", "
+                + channels.find("ops").unsubscribe(nobody) + ", " + channels.find("ops").getSubscriberCount());
+    }
+
+    /**
+     * Tests that messages sent with session keys are decrypted by key ID, across rotations and cache evictions.
+     */
+    public static void testKeyManager() {
+        SecretAgent jane = new SecretAgent("Jane", "Alpha", Clearance.LEVEL_2);
+        SecretAgent john = new SecretAgent("John", "Beta", Clearance.LEVEL_2);
+        SecretAgent bob = new SecretAgent("Bob", "Delta", Clearance.LEVEL_2);
+        SecretAgent mary = new SecretAgent("Mary", "Gamma", Clearance.LEVEL_2);
+        KeyManager keys = new KeyManager(new byte[32], 2, 1000);
+
+        jane.send(john, new Message(jane, john, "first"), keys);
+        keys.rotate(jane.getAgentID(), john.getAgentID());
+        jane.send(john, new Message(jane, john, "second"), keys);
+        //Fills the cache, evicting the pair's current key, which is derived again for the next message.
+        bob.send(john, new Message(bob, john, "third"), keys);
+        mary.send(john, new Message(mary, john, "extra"), keys);
+        jane.send(john, new Message(jane, john, "fourth"), keys);
+
+        john.decryptAll(keys);
+        StringBuilder contents = new StringBuilder();
+        for(Message message : john.getInbox()) {
+            contents.append(message.getContent()).append(' ').append(message.getKeyID()).append(", ");
+        }
+        System.out.println("Expected output: fourth 1, extra 0, third 0, second 1, first 0, 2");
+        System.out.println("Actual output: " + contents + keys.getCacheSize());
+
+        //A rejected send doesn't take a key ID or count towards the key's message limit.
+        KeyManager limited = new KeyManager(new byte[32], 4, 1);
+        jane.setClearancePolicy(new ClearancePolicy(1, true));
+        Message rejected = new Message(jane, bob, "secret", Clearance.LEVEL_3);
+        System.out.println("Expected output: " + DeliveryStatus.SECRECY_TOO_HIGH.getDescription());
+        System.out.print("Actual output: ");
+        DeliveryStatus status = jane.send(bob, rejected, limited);
+        Message accepted = new Message(jane, bob, "open");
+        jane.send(bob, accepted, limited);
+        System.out.println("Expected output: SECRECY_TOO_HIGH, -1, 0");
+        System.out.println("Actual output: " + status + ", " + rejected.getKeyID() + ", " + accepted.getKeyID());
+
+        //Only the most recent pairs are kept, and a forgotten pair starts again on key ID 0.
+        KeyManager few = new KeyManager(new byte[32], 4, 1000, 2);
+        few.rotate(jane.getAgentID(), john.getAgentID());
+        few.rotate(bob.getAgentID(), john.getAgentID());
+        few.rotate(mary.getAgentID(), john.getAgentID());
+        System.out.println("Expected output: 2, 0, 1");
+        System.out.println("Actual output: " + few.getPairCount() + ", " + few.getCurrentKeyID(jane.getAgentID(), john.getAgentID())
+                + ", " + few.getCurrentKeyID(mary.getAgentID(), john.getAgentID()));
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class to hold the outcome of sending one message to many receivers.
+ * Keeps the delivery status for each receiver and the number of receivers per status.
+ *
+ * Author: Fatima Navid
+ */
+public class SendResult {
+    private final Map<SecretAgent, DeliveryStatus> statuses = new LinkedHashMap<>();
+    private final Map<DeliveryStatus, Integer> counts = new EnumMap<>(DeliveryStatus.class);
+
+    /**
+     * Records the outcome for a receiver.
+     *
+     * @param receiver, the agent the message was sent to.
+     * @param status, the outcome of the delivery.
+     */
+    public void record(SecretAgent receiver, DeliveryStatus status) {
+        statuses.put(receiver, status);
+        counts.merge(status, 1, Integer::sum);
+    }
+
+    /**
+     * Accessor for the outcome of one receiver.
+     *
+     * @param receiver, the agent to look up.
+     * @return the delivery status, or null if the agent was not a receiver.
+     */
+    public DeliveryStatus getStatus(SecretAgent receiver) {
+        return statuses.get(receiver);
+    }
+
+    /**
+     * Accessor for the outcome of every receiver.
+     */
+    public Map<SecretAgent, DeliveryStatus> getStatuses() {
+        return Collections.unmodifiableMap(statuses);
+    }
+
+    /**
+     * Accessor for the number of receivers with a given outcome.
+     *
+     * @param status, the outcome to count.
+     * @return the number of receivers with that outcome.
+     */
+    public int count(DeliveryStatus status) {
+        return counts.getOrDefault(status, 0);
+    }
+
+    /**
+     * Accessor for the number of receivers the message was delivered to.
+     */
+    public int getDelivered() {
+        return count(DeliveryStatus.DELIVERED);
+    }
+
+    /**
+     * Accessor for the number of receivers the message was not delivered to.
+     */
+    public int getRejected() {
+        return statuses.size() - getDelivered();
+    }
+
+    /**
+     * Returns a summary of the outcomes.
+     *
+     * @return formatted string with the number of receivers per outcome.
+     */
+    @Override
+    public String toString() {
+        return "Sent to " + statuses.size() + " receivers: " + counts;
+    }
+}
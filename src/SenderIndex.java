@@ -0,0 +1,115 @@
+/**
+ * Map from sender agent ID to the most recent message from that sender, used by Inbox.
+ * Keys are kept as plain ints in an open addressing table (linear probing), so no boxed keys
+ * or entry objects are created when messages are received.
+ *
+ * Author: Fatima Navid
+ */
+class SenderIndex {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private Message[] values = new Message[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Looks up the most recent message from a sender.
+     *
+     * @param agentID, the agent ID of the sender.
+     * @return the message, or null if there is none.
+     */
+    Message get(int agentID) {
+        int mask = keys.length - 1;
+        for(int i = slot(agentID, mask); values[i] != null; i = (i + 1) & mask) {
+            if(keys[i] == agentID) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the most recent message from a sender.
+     *
+     * @param agentID, the agent ID of the sender.
+     * @param message, the message (not null).
+     * @return the message it replaces, or null if there was none.
+     */
+    Message put(int agentID, Message message) {
+        int mask = keys.length - 1;
+        int i = slot(agentID, mask);
+        for(; values[i] != null; i = (i + 1) & mask) {
+            if(keys[i] == agentID) {
+                Message previous = values[i];
+                values[i] = message;
+                return previous;
+            }
+        }
+
+        //New sender: keep the table at most three quarters full.
+        if((size + 1) * 4 > keys.length * 3) {
+            grow();
+            return put(agentID, message);
+        }
+        keys[i] = agentID;
+        values[i] = message;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes a sender.
+     * Entries after the removed one are moved back, so lookups never stop early at the gap.
+     *
+     * @param agentID, the agent ID of the sender.
+     */
+    void remove(int agentID) {
+        int mask = keys.length - 1;
+        int i = slot(agentID, mask);
+        while(values[i] != null && keys[i] != agentID) {
+            i = (i + 1) & mask;
+        }
+        if(values[i] == null) {
+            return;
+        }
+        values[i] = null;
+        size--;
+
+        for(int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            //Move the entry into the gap unless its home slot lies cyclically between the gap and where it is.
+            boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if(!between) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Doubles the table and puts every entry back.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        Message[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Message[oldValues.length * 2];
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldValues[i] != null) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Helper method to find the home slot of an agent ID. IDs are handed out one after another,
+     * so they are mixed first to spread them over the table.
+     */
+    private static int slot(int agentID, int mask) {
+        int hash = agentID * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,32 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Interface for the transports sharded routers use to pass batches of encoded messages between shards.
+ * A batch is a buffer of messages encoded back to back with MessageCodec.
+ *
+ * Author: Fatima Navid
+ */
+public interface ShardTransport extends Closeable {
+    /**
+     * Starts receiving batches sent to a shard hosted on this node.
+     * The receiver is called with each batch, and must read it before returning as the buffer may be reused.
+     *
+     * @param shard, the shard hosted on this node.
+     * @param receiver, called with every batch sent to the shard.
+     * @throws IOException if the transport can't start receiving.
+     */
+    void bind(int shard, Consumer<ByteBuffer> receiver) throws IOException;
+
+    /**
+     * Sends a batch to the node hosting a shard. The remaining bytes of the batch are sent.
+     * The batch may be reused by the caller once this returns.
+     *
+     * @param shard, the shard to send to.
+     * @param batch, the encoded messages.
+     * @throws IOException if the batch could not be sent.
+     */
+    void send(int shard, ByteBuffer batch) throws IOException;
+}
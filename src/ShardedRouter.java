@@ -0,0 +1,325 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Router for agents spread over several shards, each hosted by its own node.
+ * Agents are assigned to shards by a hash of their agent ID, and a shard holds the inboxes of its agents.
+ * Every node has a router for the shard it hosts and a registry that knows about every agent.
+ *
+ * Messages for agents on this shard are sent directly. Messages for other shards are checked and encrypted here,
+ * then encoded with MessageCodec into a batch for the receiving shard. A batch is sent through the transport
+ * when it is full or after a short linger time, so many messages share one write.
+ * Batches received from other shards are decoded and delivered to the receivers' inboxes on the transport's thread,
+ * so receivers on a sharded node should use a ConcurrentInbox.
+ *
+ * Message bodies are not sent between shards, only the encoded message.
+ *
+ * Author: Fatima Navid
+ */
+public class ShardedRouter {
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+    public static final long DEFAULT_LINGER_MILLIS = 5;
+
+    private final int shardCount;
+    private final int localShard;
+    private final AgentRegistry registry;
+    private final ShardTransport transport;
+    private final Batch[] batches;
+    private final long lingerMillis;
+
+    /**
+     * Sends hold the read lock while they check closed and add to a batch, so close can't miss a message.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong batchesSent = new AtomicLong();
+
+    /**
+     * Constructor for a router with the default batch size and linger time.
+     *
+     * @param shardCount, the number of shards.
+     * @param localShard, the shard hosted on this node.
+     * @param registry, the registry of every agent.
+     * @param transport, the transport to other shards.
+     * @throws IOException if the transport can't receive for the local shard.
+     */
+    public ShardedRouter(int shardCount, int localShard, AgentRegistry registry, ShardTransport transport)
+            throws IOException {
+        this(shardCount, localShard, registry, transport, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS);
+    }
+
+    /**
+     * Constructor for a router.
+     *
+     * @param shardCount, the number of shards.
+     * @param localShard, the shard hosted on this node.
+     * @param registry, the registry of every agent.
+     * @param transport, the transport to other shards.
+     * @param batchSize, the number of bytes a batch holds before it is sent.
+     * @param lingerMillis, the longest a message waits in a batch before it is sent, or 0 to send every message
+     *                     straight away without batching.
+     * @throws IOException if the transport can't receive for the local shard.
+     */
+    public ShardedRouter(int shardCount, int localShard, AgentRegistry registry, ShardTransport transport,
+                         int batchSize, long lingerMillis) throws IOException {
+        this.shardCount = shardCount;
+        this.localShard = localShard;
+        this.registry = registry;
+        this.transport = transport;
+        this.lingerMillis = Math.max(0, lingerMillis);
+
+        batches = new Batch[shardCount];
+        for(int shard = 0; shard < shardCount; shard++) {
+            if(shard != localShard) {
+                batches[shard] = new Batch(shard, batchSize);
+            }
+        }
+        transport.bind(localShard, this::deliverBatch);
+
+        //Without a linger time every message is sent as soon as it is added, so no timer is needed.
+        if(this.lingerMillis == 0) {
+            flusher = null;
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "shard-" + localShard + "-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Works out which shard an agent belongs to.
+     * Agent IDs are mixed first, so agents created one after another don't all land on neighbouring shards.
+     *
+     * @param agentID, the agent ID.
+     * @param shardCount, the number of shards.
+     * @return the shard of the agent.
+     */
+    public static int shardOf(int agentID, int shardCount) {
+        int hash = agentID * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+    }
+
+    /**
+     * Sends a message to a receiver on any shard.
+     * Prints an error message and returns the reason if the receiver is unknown or a check fails.
+     *
+     * @param sender, the agent sending the message (on this node).
+     * @param receiverID, agent ID of the receiver.
+     * @param msg, Message to send.
+     * @param cipher, cipher used for encryption.
+     * @return the outcome for receivers on this shard, or FORWARDED once the message is in a batch for another shard.
+     *         ROUTER_CLOSED once the router has been closed.
+     */
+    public DeliveryStatus send(SecretAgent sender, int receiverID, Message msg, MessageCipher cipher) {
+        closeLock.readLock().lock();
+        try {
+            if(closed) {
+                MetricsRecorder metrics = Metrics.recorder();
+                metrics.sent();
+                metrics.rejected(DeliveryStatus.ROUTER_CLOSED);
+                System.out.println(DeliveryStatus.ROUTER_CLOSED.getDescription());
+                return DeliveryStatus.ROUTER_CLOSED;
+            }
+            return route(sender, receiverID, msg, cipher);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method for send to deliver locally or add the message to another shard's batch.
+     */
+    private DeliveryStatus route(SecretAgent sender, int receiverID, Message msg, MessageCipher cipher) {
+        int shard = shardOf(receiverID, shardCount);
+        if(shard == localShard) {
+            return sender.send(registry, receiverID, msg, cipher);
+        }
+
+        MetricsRecorder metrics = Metrics.recorder();
+        metrics.sent();
+        SecretAgent receiver = registry.findSecretAgent(receiverID);
+        DeliveryStatus status = receiver == null ? DeliveryStatus.UNKNOWN_RECEIVER : sender.checkSend(receiver, msg);
+        if(status != DeliveryStatus.DELIVERED) {
+            metrics.rejected(status);
+            System.out.println(status.getDescription());
+            return status;
+        }
+
+        long encryptStart = metrics.startTimer();
+        if(!msg.encrypt(cipher, sender.getCompressor())) {
+            metrics.rejected(DeliveryStatus.ENCRYPTION_FAILED);
+            return DeliveryStatus.ENCRYPTION_FAILED;
+        }
+        metrics.encrypted(encryptStart);
+
+        batches[shard].add(msg);
+        if(lingerMillis == 0) {
+            batches[shard].send();
+        }
+        return DeliveryStatus.FORWARDED;
+    }
+
+    /**
+     * Sends every batch that has messages waiting, without waiting for the linger time.
+     */
+    public void flush() {
+        for(Batch batch : batches) {
+            if(batch != null) {
+                batch.send();
+            }
+        }
+    }
+
+    /**
+     * Stops the linger timer and sends the batches still waiting.
+     * The transport is not closed, as it may be shared. Messages sent afterwards are rejected with ROUTER_CLOSED.
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if(closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        if(flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.SECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Decodes a batch received from another shard and delivers each message to its receiver's inbox.
+     *
+     * @param batch, the encoded messages.
+     */
+    private void deliverBatch(ByteBuffer batch) {
+        MetricsRecorder metrics = Metrics.recorder();
+        //Latency on this side only covers delivery from the batch, as the send time isn't in the batch.
+        long start = metrics.startTimer();
+        while(batch.hasRemaining()) {
+            Message msg;
+            try {
+                msg = MessageCodec.decode(batch, registry::findByID);
+            } catch(RuntimeException e) {
+                //The rest of the batch can't be found after a broken message, so it is dropped.
+                System.out.println("Batch could not be decoded: " + e);
+                return;
+            }
+            if(msg == null) {
+                continue;
+            }
+            SecretAgent receiver = registry.findSecretAgent(msg.getTo().getAgentID());
+            try {
+                if(receiver == null) {
+                    metrics.rejected(DeliveryStatus.UNKNOWN_RECEIVER);
+                } else if(!receiver.getInbox().receive(msg)) {
+                    metrics.rejected(DeliveryStatus.INBOX_FULL);
+                } else {
+                    metrics.delivered(start);
+                }
+            } catch(RuntimeException e) {
+                System.out.println("Message could not be delivered: " + e);
+            }
+        }
+    }
+
+    /**
+     * Accessor for the number of batches sent to other shards.
+     */
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+    /**
+     * Accessors for the shard hosted on this node and the number of shards.
+     */
+    public int getLocalShard() {
+        return localShard;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Messages waiting to be sent to one shard.
+     * Adding and sending lock the batch, so messages from many senders are sent in the order they were added.
+     */
+    private class Batch {
+        private final int shard;
+        private final ByteBuffer buffer;
+        private int count;
+
+        private Batch(int shard, int size) {
+            this.shard = shard;
+            this.buffer = ByteBuffer.allocate(size);
+        }
+
+        /**
+         * Encodes a message into the batch, sending the batch first if the message doesn't fit.
+         * A message larger than a whole batch is sent on its own.
+         */
+        private synchronized void add(Message msg) {
+            if(MessageCodec.encode(msg, buffer) >= 0) {
+                count++;
+                return;
+            }
+            send();
+            if(MessageCodec.encode(msg, buffer) >= 0) {
+                count++;
+                return;
+            }
+
+            ByteBuffer single = ByteBuffer.allocate(MessageCodec.encodedLength(msg));
+            MessageCodec.encode(msg, single);
+            single.flip();
+            write(single, 1);
+        }
+
+        /**
+         * Sends the messages in the batch, if there are any.
+         */
+        private synchronized void send() {
+            if(count == 0) {
+                return;
+            }
+            buffer.flip();
+            write(buffer, count);
+            buffer.clear();
+            count = 0;
+        }
+
+        /**
+         * Writes encoded messages to the transport. If that fails, the messages are counted as rejected.
+         */
+        private void write(ByteBuffer encoded, int messages) {
+            try {
+                transport.send(shard, encoded);
+                batchesSent.incrementAndGet();
+            } catch(IOException e) {
+                System.out.println("Batch could not be sent to shard " + shard + ": " + e.getMessage());
+                for(int i = 0; i < messages; i++) {
+                    Metrics.recorder().rejected(DeliveryStatus.SHARD_UNREACHABLE);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Shard transport that sends batches between nodes over TCP with NIO socket channels.
+ * Every batch is sent as one frame, [int length][batch], written with a single gathering write.
+ *
+ * Each node listens on the address of the shard it hosts. One thread per node reads incoming frames
+ * from every connection with a selector and hands them to the shard's receiver.
+ * Outgoing connections are opened the first time a shard is sent to and kept open.
+ * A connection that sends a frame length below 0 or above MAX_FRAME_LENGTH, or whose frames can't be read,
+ * is closed without affecting the other connections.
+ *
+ * Author: Fatima Navid
+ */
+public class SocketTransport implements ShardTransport {
+    private static final int HEADER_LENGTH = Integer.BYTES;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest batch that can be sent or received in one frame.
+     */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private final Map<Integer, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+    private final Map<Integer, SocketChannel> connections = new ConcurrentHashMap<>();
+    private ServerSocketChannel server;
+    private Selector selector;
+    private Thread readerThread;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for a transport.
+     *
+     * @param addresses, the address of the node hosting each shard.
+     */
+    public SocketTransport(Map<Integer, InetSocketAddress> addresses) {
+        this.addresses.putAll(addresses);
+    }
+
+    /**
+     * Listens on the shard's address and starts the reader thread.
+     * If the address has port 0, a free port is picked and the shard's address is updated (see getAddress).
+     */
+    @Override
+    public void bind(int shard, Consumer<ByteBuffer> receiver) throws IOException {
+        InetSocketAddress address = addresses.get(shard);
+        if(address == null) {
+            throw new IOException("No address for shard " + shard + ".");
+        }
+        if(server != null) {
+            throw new IOException("Transport is already bound.");
+        }
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        addresses.put(shard, (InetSocketAddress) server.getLocalAddress());
+
+        readerThread = new Thread(() -> readLoop(receiver), "shard-" + shard + "-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    @Override
+    public void send(int shard, ByteBuffer batch) throws IOException {
+        if(batch.remaining() > MAX_FRAME_LENGTH) {
+            throw new IOException("Batch of " + batch.remaining() + " bytes is larger than a frame.");
+        }
+        SocketChannel connection = connect(shard);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(0, batch.remaining());
+        ByteBuffer[] frame = {header, batch};
+        synchronized(connection) {
+            try {
+                while(batch.hasRemaining()) {
+                    connection.write(frame);
+                }
+            } catch(IOException e) {
+                //Drop the broken connection so the next batch reconnects.
+                connections.remove(shard, connection);
+                connection.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Helper method for send to find or open the connection to a shard.
+     *
+     * @param shard, the shard to connect to.
+     * @return the connection.
+     * @throws IOException if the shard has no address or the connection fails.
+     */
+    private SocketChannel connect(int shard) throws IOException {
+        SocketChannel connection = connections.get(shard);
+        if(connection != null) {
+            return connection;
+        }
+
+        InetSocketAddress address = addresses.get(shard);
+        if(address == null) {
+            throw new IOException("No address for shard " + shard + ".");
+        }
+        SocketChannel opened = SocketChannel.open(address);
+        opened.socket().setTcpNoDelay(true);   //Batching already groups small messages.
+        connection = connections.putIfAbsent(shard, opened);
+        if(connection != null) {
+            opened.close();   //Another thread connected first.
+            return connection;
+        }
+        return opened;
+    }
+
+    /**
+     * Reads frames from every incoming connection until the transport is closed.
+     *
+     * @param receiver, called with every batch received.
+     */
+    private void readLoop(Consumer<ByteBuffer> receiver) {
+        try {
+            while(!closed) {
+                selector.select();
+                for(SelectionKey key : selector.selectedKeys()) {
+                    if(key.isAcceptable()) {
+                        accept();
+                    } else if(key.isReadable()) {
+                        readQuietly(key, receiver);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch(IOException e) {
+            System.out.println("Shard reader stopped: " + e.getMessage());
+        } finally {
+            //Close the incoming connections and the server socket with the selector.
+            for(SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    /**
+     * Helper method to close a channel or selector that is no longer needed, ignoring errors.
+     */
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch(IOException e) {
+            //Nothing more can be done with it.
+        }
+    }
+
+    /**
+     * Helper method for readLoop to accept a new connection.
+     */
+    private void accept() throws IOException {
+        SocketChannel connection = server.accept();
+        if(connection != null) {
+            connection.configureBlocking(false);
+            connection.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(READ_BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * Helper method for readLoop to read from a connection, closing only that connection if reading it fails,
+     * so one bad peer can't stop the reader thread.
+     */
+    private void readQuietly(SelectionKey key, Consumer<ByteBuffer> receiver) {
+        try {
+            read(key, receiver);
+        } catch(RuntimeException e) {
+            System.out.println("Connection closed after a read failure: " + e);
+            key.cancel();
+            closeQuietly(key.channel());
+        }
+    }
+
+    /**
+     * Helper method for readLoop to read from a connection and pass on every complete frame.
+     * Each connection has its own buffer, which grows if a frame doesn't fit.
+     */
+    private void read(SelectionKey key, Consumer<ByteBuffer> receiver) {
+        SocketChannel connection = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        try {
+            if(connection.read(buffer) < 0) {
+                key.cancel();
+                connection.close();
+                return;
+            }
+        } catch(IOException e) {
+            System.out.println("Connection lost: " + e.getMessage());
+            key.cancel();
+            closeQuietly(connection);
+            return;
+        }
+
+        buffer.flip();
+        while(buffer.remaining() >= HEADER_LENGTH) {
+            int length = buffer.getInt(buffer.position());
+            if(length < 0 || length > MAX_FRAME_LENGTH) {
+                System.out.println("Invalid frame length " + length + ", closing connection.");
+                key.cancel();
+                closeQuietly(connection);
+                return;
+            }
+            if(buffer.remaining() < HEADER_LENGTH + length) {
+                break;
+            }
+            ByteBuffer frame = buffer.slice(buffer.position() + HEADER_LENGTH, length);
+            buffer.position(buffer.position() + HEADER_LENGTH + length);
+            try {
+                receiver.accept(frame);
+            } catch(RuntimeException e) {
+                //One bad frame mustn't stop the reader, or the connection would stop delivering.
+                System.out.println("Frame could not be delivered: " + e);
+            }
+        }
+        buffer.compact();
+
+        //Make room for a frame larger than the buffer. The length was checked above, so this can't overflow.
+        if(buffer.position() >= HEADER_LENGTH) {
+            int needed = HEADER_LENGTH + buffer.getInt(0);
+            if(needed > buffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(needed);
+                buffer.flip();
+                larger.put(buffer);
+                key.attach(larger);
+            }
+        }
+    }
+
+    /**
+     * Accessor for the address of the node hosting a shard.
+     */
+    public InetSocketAddress getAddress(int shard) {
+        return addresses.get(shard);
+    }
+
+    /**
+     * Setter for the address of the node hosting a shard, for example once another node has picked a port.
+     */
+    public void setAddress(int shard, InetSocketAddress address) {
+        addresses.put(shard, address);
+    }
+
+    /**
+     * Closes every connection and stops the reader thread.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if(selector != null) {
+            selector.wakeup();
+            try {
+                readerThread.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for(SocketChannel connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+    }
+}